@@ -0,0 +1,152 @@
+package simpledb.buffer;
+
+import java.util.*;
+import java.util.function.IntPredicate;
+import simpledb.file.BlockId;
+
+/**
+ * AM: ARC, the Adaptive Replacement Cache (Megiddo & Modha).
+ *    T1 -> frames whose block has been referenced once recently ("recency")
+ *    T2 -> frames whose block has been referenced at least twice ("frequency")
+ *    B1, B2 -> ghost lists: ids of blocks recently evicted from T1 / T2 (no data)
+ * The target size p of T1 adapts: a miss on a block in B1 means T1 was too small, so p grows;
+ * a miss on a block in B2 means T2 was too small, so p shrinks. The victim comes from T1 when
+ * T1 is above its target and from T2 otherwise. A long scan only ever fills T1, so the hot blocks
+ * in T2 survive it.
+ * Pinned frames can't be replaced, so when the preferred list has no unpinned frame the other
+ * list is tried as well. p and the ghost lists only change once a frame has actually been claimed,
+ * so a pin that finds every frame pinned can retry without moving p or losing ghosts.
+ */
+class ArcPolicy implements ReplacementPolicy {
+   private int c;
+   private int p = 0;
+   private LinkedHashSet<Integer> free = new LinkedHashSet<>();
+   private LinkedHashSet<Integer> t1 = new LinkedHashSet<>();    // AM: Least recently used first
+   private LinkedHashSet<Integer> t2 = new LinkedHashSet<>();
+   private LinkedHashSet<BlockId> b1 = new LinkedHashSet<>();
+   private LinkedHashSet<BlockId> b2 = new LinkedHashSet<>();
+   private BlockId[] blocks;
+   private boolean[] unreferenced;    // AM: Prefetched into T1 and not pinned yet
+
+   ArcPolicy(int numbuffs) {
+      blocks = new BlockId[0];
+      unreferenced = new boolean[0];
+      resize(numbuffs);
+   }
+
+   public synchronized void pinned(int frame) {
+      if (unreferenced[frame]) {
+         unreferenced[frame] = false;   // AM: First real reference of a prefetched block: it stays in T1
+         if (t1.remove(frame))
+            t1.add(frame);
+      }
+      else if (t1.remove(frame) || t2.remove(frame))
+         t2.add(frame);                 // AM: Case I: a hit moves the block to the MRU end of T2
+   }
+
+   public synchronized int victim(BlockId blk, IntPredicate tryClaim) {
+      boolean inB1 = b1.contains(blk);
+      boolean inB2 = b2.contains(blk);
+      int target = p;                   // AM: The adapted p; stored by adapt() once a frame is claimed
+      if (inB1)
+         target = Math.min(c, p + Math.max(b2.size() / b1.size(), 1));  // AM: Case II
+      else if (inB2)
+         target = Math.max(0, p - Math.max(b1.size() / b2.size(), 1));  // AM: Case III
+
+      int frame = ReplacementPolicy.claimFirst(free, tryClaim);
+      if (frame >= 0) {
+         free.remove(frame);            // AM: The cache isn't full yet; nothing to replace
+         adapt(inB1, inB2, target);
+         return frame;
+      }
+
+      boolean fromT1 = !t1.isEmpty() && ((inB2 && t1.size() == target) || t1.size() > target);   // AM: REPLACE(x, p)
+      frame = ReplacementPolicy.claimFirst(fromT1 ? t1 : t2, tryClaim);
+      if (frame < 0)
+         frame = ReplacementPolicy.claimFirst(fromT1 ? t2 : t1, tryClaim);
+      if (frame < 0)
+         return -1;                     // AM: Every frame pinned: p and the ghosts are left as they were for the retry
+      boolean ghost = adapt(inB1, inB2, target);   // AM: Whether the evicted block is remembered in B1/B2
+      if (t1.remove(frame)) {
+         if (ghost)
+            b1.add(blocks[frame]);
+      }
+      else {
+         t2.remove(frame);
+         b2.add(blocks[frame]);
+      }
+      // AM: Pinned frames can push the lists past the usual ARC bounds; keep the ghosts within 2c in total
+      while (t1.size() + t2.size() + b1.size() + b2.size() > 2 * c && !(b1.isEmpty() && b2.isEmpty()))
+         removeOldest(b1.size() > b2.size() ? b1 : b2);
+      blocks[frame] = null;
+      unreferenced[frame] = false;
+      return frame;
+   }
+
+   public synchronized int[] nextVictims(int n) {
+      boolean fromT1 = !t1.isEmpty() && t1.size() > p;   // AM: REPLACE(x, p) for a block that isn't a ghost
+      return ReplacementPolicy.firstOf(n, fromT1 ? t1 : t2, fromT1 ? t2 : t1);
+   }
+
+   public synchronized void loaded(int frame, BlockId blk, boolean prefetched) {
+      if (frame >= c)
+         return;
+      blocks[frame] = blk;
+      boolean ghostHit = b1.remove(blk) | b2.remove(blk);
+      if (ghostHit && !prefetched)
+         t2.add(frame);                 // AM: Cases II/III: a block seen before goes straight to T2
+      else {
+         t1.add(frame);
+         unreferenced[frame] = prefetched;
+      }
+   }
+
+   public synchronized void emptied(int frame) {
+      if (frame < c)
+         free.add(frame);
+   }
+
+   public synchronized void resize(int n) {
+      if (n > blocks.length) {
+         blocks = Arrays.copyOf(blocks, n);
+         unreferenced = Arrays.copyOf(unreferenced, n);
+      }
+      for (int f = n; f < c; f++) {
+         free.remove(f);
+         t1.remove(f);
+         t2.remove(f);
+         blocks[f] = null;
+         unreferenced[f] = false;
+      }
+      for (int f = c; f < n; f++)
+         free.add(f);
+      c = n;
+      p = Math.min(p, c);
+      while (t1.size() + t2.size() + b1.size() + b2.size() > 2 * c && !(b1.isEmpty() && b2.isEmpty()))
+         removeOldest(b1.size() > b2.size() ? b1 : b2);
+   }
+
+   /* AM: Applies Cases II-IV of a miss once a frame has been claimed for it: stores the adapted p and
+    *     trims the ghost lists. Returns false if the block evicted from T1 is to be dropped without a ghost.
+    */
+   private boolean adapt(boolean inB1, boolean inB2, int target) {
+      p = target;
+      if (inB1 || inB2)
+         return true;
+      if (t1.size() + b1.size() >= c) {                                 // AM: Case IV(a)
+         if (t1.size() < c) {
+            removeOldest(b1);
+            return true;
+         }
+         return false;                  // AM: T1 alone fills the cache; its LRU block is dropped without a ghost
+      }
+      if (t1.size() + t2.size() + b1.size() + b2.size() >= 2 * c)       // AM: Case IV(b)
+         removeOldest(b2);
+      return true;
+   }
+
+   private static void removeOldest(LinkedHashSet<BlockId> list) {
+      if (!list.isEmpty())
+         list.remove(list.iterator().next());
+   }
+}
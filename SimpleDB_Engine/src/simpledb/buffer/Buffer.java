@@ -1,5 +1,9 @@
 package simpledb.buffer;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import simpledb.file.BlockId;
 import simpledb.file.FileMgr;
 import simpledb.file.Page;
@@ -27,30 +31,58 @@ import simpledb.log.LogMgr;
  * - Has it been modified? (txnum, lsn)
  * * 2. THE GATEKEEPER (Traffic Logic)
  * - It bridges the gap between the Memory layer and the Disk layer.
- * - assignToBlock(): Loads data from FileMgr into memory.
+ * - assignToBlockDeferred() + read(): Loads data from FileMgr into memory.
  * - flush(): Saves data from memory to FileMgr.
  * * 3. WAL ENFORCEMENT (Durability)
  * - Before flushing dirty data to disk, the Buffer checks the Log Sequence Number (LSN).
  * - It ensures that the LogMgr has saved the corresponding log record before the Page writes its data. This guarantees that we never have "orphaned" updates
  * on disk without a log history.
+ * * 4. ASYNCHRONOUS LOADING
+ * - assignToBlockDeferred() re-assigns the buffer without reading; BufferMgr then starts the read
+ * (possibly one vectored read for several buffers) and hands its future over with loading().
+ * - The read is only waited for when somebody actually needs the Page (contents(), flush(),
+ * or re-assigning the buffer), so BufferMgr.prefetch() can have reads in flight while the caller keeps working.
+ * - A pin() that misses uses the same mechanism: the buffer is published with an uncompleted future
+ * and read on the pinning thread, so anyone else pinning the block meanwhile just waits for that read.
+ * * 5. CONCURRENCY
+ * - The pin count is an AtomicInteger, so pinning a resident buffer is a single compare-and-set.
+ * - CLAIMED (-1) marks a buffer that BufferMgr is re-assigning: claim() only succeeds on an unpinned
+ * buffer, and tryPin() fails on a claimed one, so a buffer can never be pinned and evicted at once.
+ * - flush() and the re-assignment methods are synchronized on the buffer itself, so a committing
+ * transaction's flushAll() and an eviction of the same buffer never write it twice or interleave.
+ * - flush() does not hold the monitor while it waits for the log: a log force can take a while, and
+ * pins of this buffer shouldn't queue up behind it.
  */
 
 public class Buffer {
    private FileMgr fm;
    private LogMgr lm;
    private Page contents;
-   private BlockId blk = null;
-   private int pins = 0;
-   private int txnum = -1;    // AM: Identifies if a modification has been made to the Buffer's Page and maintains the transaction number
-   private int lsn = -1;      // AM: Log Sequence Number holds the most recent log record when an update is made by a transaction.
+   static final int CLAIMED = -1;
+   private int frame;
+   private volatile BlockId blk = null;
+   private AtomicInteger pins = new AtomicInteger(0);   // AM: Pin count, or CLAIMED while BufferMgr re-assigns the buffer
+   private volatile int txnum = -1;    // AM: Identifies if a modification has been made to the Buffer's Page and maintains the transaction number
+   private long lsn = -1;     // AM: Log Sequence Number holds the most recent log record when an update is made by a transaction.
+   private volatile CompletableFuture<Void> pendingRead = null;   // AM: Non-null while an asynchronous read into contents is in flight
+   private volatile BufferRing ring = null;   // AM: The BufferRing this frame is lent to, or null if it belongs to the shared pool
+   private DirtyFrameIndex dirtyFrames;       // AM: BufferMgr's per-transaction index of dirty buffers (null for a standalone Buffer)
 
    public Buffer(FileMgr fm, LogMgr lm) {
+      this(fm, lm, -1, null);
+   }
+
+   // AM: Used by BufferMgr; frame is the buffer's index in the pool, which is how ReplacementPolicy refers to it
+   Buffer(FileMgr fm, LogMgr lm, int frame, DirtyFrameIndex dirtyFrames) {
       this.fm = fm;
       this.lm = lm;
-      contents = new Page(fm.blockSize());   // AM: Points to a specific memory address on the heap (eg. Memory Address 0x1234)
+      this.frame = frame;
+      this.dirtyFrames = dirtyFrames;
+      contents = fm.pageArena().borrow();    // AM: An off-heap page frame; held until BufferMgr retires the frame
    }
    
    public Page contents() {
+      awaitRead();            // AM: Blocks only if the page is still being read in
       return contents;
    }
 
@@ -63,7 +95,37 @@ public class Buffer {
       return blk;
    }
 
-   public void setModified(int txnum, int lsn) {
+   int frame() {
+      return frame;
+   }
+
+   BufferRing ring() {
+      return ring;
+   }
+
+   // AM: Lends the frame to a ring, or with null gives it (back) to the shared pool
+   synchronized void joinRing(BufferRing r) {
+      ring = r;
+   }
+
+   /**
+    * Takes the frame away from the specified ring.
+    * @return false if the frame was no longer lent to that ring
+    */
+   synchronized boolean leaveRing(BufferRing r) {
+      if (ring != r)
+         return false;
+      ring = null;
+      return true;
+   }
+
+   public synchronized void setModified(int txnum, long lsn) {
+      if (dirtyFrames != null && txnum != this.txnum) {   // AM: Only the first change by a transaction touches the index
+         if (this.txnum >= 0)
+            dirtyFrames.remove(this.txnum, this);
+         if (txnum >= 0)
+            dirtyFrames.add(txnum, this);
+      }
       this.txnum = txnum;
       if (lsn >= 0)
          this.lsn = lsn;
@@ -75,49 +137,173 @@ public class Buffer {
     * @return true if the buffer is pinned
     */
    public boolean isPinned() {
-      return pins > 0;
+      return pins.get() > 0;
    }
    
    public int modifyingTx() {
       return txnum;
    }
 
+   // AM: The LSN of the latest log record describing a change to this page
+   synchronized long logSequenceNumber() {
+      return lsn;
+   }
+
    /**
-    * Reads the contents of the specified block into
-    * the contents of the buffer.
+    * Assigns the buffer to the specified block without reading it.
     * If the buffer was dirty, then its previous contents
     * are first written to disk.
-    * @param b a reference to the data block
+    * The caller (which has claimed the buffer) must pass the future
+    * of the read to {@link #loading} before anyone can pin the buffer.
+    * @param b a reference to the data block, or null to leave the buffer empty
     */
-   void assignToBlock(BlockId b) {
+   synchronized void assignToBlockDeferred(BlockId b) {
       flush();                // AM: Flush Buffer to Disk
       blk = b;
-      fm.read(blk, contents); // AM: Triggers FileMgr to retrieve contents from disk and stores them into the Page object ('contents') owned by this Buffer.
-      pins = 0;
+   }
+
+   /**
+    * Reads the assigned block into the page on the calling thread and
+    * completes the future that was passed to {@link #loading}.
+    * Not synchronized: threads waiting for the read in flush() hold the monitor.
+    * @param loaded the future handed to loading()
+    */
+   void read(CompletableFuture<Void> loaded) {
+      try {
+         fm.read(blk, contents); // AM: Triggers FileMgr to retrieve contents from disk and stores them into the Page object ('contents') owned by this Buffer.
+         loaded.complete(null);
+      }
+      catch (RuntimeException e) {
+         loaded.completeExceptionally(e);
+         throw e;
+      }
+   }
+
+   /**
+    * Records the in-flight read that is filling the contents.
+    * Anyone who needs the contents waits for it to complete.
+    * @param read the future of the read into this buffer's page
+    */
+   void loading(CompletableFuture<Void> read) {
+      pendingRead = read;
+   }
+
+   /**
+    * Waits for an outstanding asynchronous read (if any) to complete.
+    */
+   private void awaitRead() {
+      CompletableFuture<Void> f = pendingRead;
+      if (f != null) {
+         try {
+            f.join();
+         }
+         catch (CompletionException e) {
+            throw new RuntimeException("cannot read block " + blk);
+         }
+         finally {
+            pendingRead = null;
+         }
+      }
    }
    
+   /**
+    * Waits for an outstanding read like awaitRead, but ignores a failed one.
+    * A page whose read failed was never handed out, so it can't be dirty
+    * and the buffer can simply be re-used.
+    */
+   private void settleRead() {
+      CompletableFuture<Void> f = pendingRead;
+      if (f != null) {
+         f.handle((v, e) -> null).join();
+         pendingRead = null;
+      }
+   }
+
    /**
     * Write the buffer to its disk block if it is dirty.
     */
    void flush() {
-      if (txnum >= 0) {
-         lm.flush(lsn);             // AM: LogMgr flushes Log to Disk
-         fm.write(blk, contents);   // AM: Writes Buffer to Disk
-         txnum = -1;
+      settleRead();                 // AM: Never write (or re-use) a page that is still being read into
+      while (true) {
+         long flushedLsn;
+         synchronized (this) {
+            if (txnum < 0)
+               return;
+            flushedLsn = lsn;
+         }
+         lm.flush(flushedLsn);      // AM: LogMgr flushes Log to Disk
+         synchronized (this) {
+            if (txnum < 0)
+               return;              // AM: Somebody else wrote it meanwhile
+            if (lsn == flushedLsn) {
+               fm.write(blk, contents);   // AM: Writes Buffer to Disk
+               if (dirtyFrames != null)
+                  dirtyFrames.remove(txnum, this);
+               txnum = -1;
+               return;
+            }
+         }                          // AM: Modified again while the log was flushed; flush the newer record too
       }
    }
 
    /**
-    * Increase the buffer's pin count.
+    * Gives the page back to the arena when BufferMgr shrinks the pool.
+    * The caller has claimed and flushed the buffer, and keeps the claim
+    * until {@link #revive} (so nobody can pin a buffer without a page).
+    * A buffer hands its page back at most once: retiring a retired buffer does nothing.
+    */
+   synchronized void retire() {
+      settleRead();
+      blk = null;
+      Page p = contents;
+      if (p == null)
+         return;                    // AM: Already retired; releasing again would put the page on the free list twice
+      contents = null;
+      fm.pageArena().release(p);
+   }
+
+   /**
+    * Gives a retired buffer a page again when BufferMgr grows the pool.
+    * A buffer that still has its page keeps it (e.g. one revived by a grow that failed part-way).
     */
-   void pin() {
-      pins++;
+   synchronized void revive() {
+      if (contents == null)
+         contents = fm.pageArena().borrow();
+   }
+
+   /**
+    * Increase the buffer's pin count, unless the buffer is claimed.
+    * @return the previous pin count, or CLAIMED if the buffer was not pinned
+    */
+   int tryPin() {
+      while (true) {
+         int n = pins.get();
+         if (n == CLAIMED || pins.compareAndSet(n, n + 1))
+            return n;
+      }
    }
 
    /**
     * Decrease the buffer's pin count.
+    * @return the remaining pin count
+    */
+   int unpin() {
+      return pins.decrementAndGet();
+   }
+
+   /**
+    * Claims an unpinned buffer for re-assignment.
+    * @return true if the buffer was unpinned and is now claimed
+    */
+   boolean claim() {
+      return pins.compareAndSet(0, CLAIMED);
+   }
+
+   /**
+    * Ends a claim, leaving the buffer with the specified pin count.
+    * @param n 0 to make the buffer available, or 1 to keep it pinned for the claimant
     */
-   void unpin() {
-      pins--;
+   void unclaim(int n) {
+      pins.set(n);
    }
 }
\ No newline at end of file
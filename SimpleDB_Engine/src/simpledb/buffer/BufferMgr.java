@@ -2,7 +2,18 @@ package simpledb.buffer;
 
 import simpledb.file.*;
 import simpledb.log.LogMgr;
+import java.io.File;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import javax.management.*;
 import java.util.*; // AM: imports the Map algorithm
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Manages the pinning and unpinning of buffers to blocks.
@@ -22,23 +33,118 @@ import java.util.*; // AM: imports the Map algorithm
  * * 2. PINNING STRATEGY (Traffic Control)
  * - pin(): "I need this block. Keep it in RAM."
  * - unpin(): "I am done. You can use this slot for someone else."
- * - If no buffers are available, pin() makes the calling thread WAIT().
- * * 3. REPLACEMENT POLICY (The Clock Algorithm)
+ * - If no buffers are available, pin() makes the calling thread WAIT() in a FIFO queue:
+ * a buffer that becomes unpinned is handed (still claimed) straight to the oldest waiter, so
+ * waiters are served in arrival order and only the one that gets the buffer wakes up.
+ * A miss that finds others already queued joins the end of the queue instead of barging ahead.
+ * - A waiter gives up with BufferAbortException after the pin timeout (setPinTimeout(), 10 seconds by default).
+ * How often and how long pins wait is recorded (see 8).
+ * * 2b. CONCURRENCY (No global lock on the hot path)
+ * - bufferMap is a ConcurrentHashMap (internally partitioned into independently locked bins),
+ * and a Buffer's pin count is atomic. Pinning a resident block is a map lookup plus a CAS;
+ * unpinning is a decrement. Neither takes a BufferMgr-wide lock.
+ * - A victim is taken by claim()ing it (CAS 0 -> CLAIMED), so two threads can never evict the same
+ * buffer, and a claimed buffer can't be pinned. With the default CLOCK policy a hit only sets
+ * an atomic reference bit.
+ * - A miss publishes the buffer with putIfAbsent() before reading it; if another thread published
+ * the same block first, the loser hands its victim back and pins the winner's buffer instead.
+ * - The wait queue is a lock-free queue; unpin() only looks at it when the pin count reaches zero.
+ * * 3. REPLACEMENT POLICY (Pluggable)
  * - When we need to load a new block but the pool is full, we must choose a victim to evict.
- * - We implemented the "Clock Algorithm" (Exercise 4.11).
- * - It iterates through the pool in a circle, looking for an unpinned buffer to steal.
- * * 4. WRITE-AHEAD LOGGING SUPPORT
+ * - The choice is delegated to a ReplacementPolicy picked at startup (ReplacementStrategy):
+ * CLOCK with reference bits (the default, which grew out of the plain clock of Exercise 4.11),
+ * LRU-K, 2Q or ARC. BufferMgr tells the policy about hits and loads, and the policy proposes
+ * victims in its order of preference; BufferMgr claims the first one that is unpinned.
+ * * 4. PREFETCHING
+ * - prefetch(): "I will need these blocks soon." Starts asynchronous reads of the blocks
+ * that are not already in the pool, into unpinned buffers, and returns without waiting.
+ * - Consecutive blocks of the same file are read together with one vectored read
+ * (FileMgr.readBlocks); a lone block uses FileMgr.readAsync.
+ * - A later pin() finds the buffer in bufferMap and the caller only waits if the read
+ * has not finished by the time it looks at the page.
+ * - Sequential read-ahead: pin() also watches the order in which each file's blocks are pinned.
+ * Once blocks n, n+1 have been pinned in a row, it prefetches the next readAhead blocks of the
+ * file (at most half of the unpinned buffers), and the next window once the scan is half-way
+ * through the current one. A full table scan then waits for at most its first couple of blocks,
+ * without TableScan (or any other caller) having to ask.
+ * - Warm restart: residentBlocks() lists the cached data blocks, hottest first (SimpleDB.shutdown() saves it),
+ * and warmUp() prefetches such a list on a background thread in file order, so after a restart the pool
+ * fills with a few large sequential reads instead of one synchronous miss at a time.
+ * * 5. WRITE-AHEAD LOGGING SUPPORT
  * - Before a dirty buffer is written back to disk, BufferMgr checks with LogMgr.
  * - It ensures the relevant Log Record is saved to disk FIRST. This guarantees
  * we never have data on disk without a history of how it got there.
+ * - flushAll() at commit/rollback looks the transaction's dirty buffers up in a DirtyFrameIndex,
+ * which the buffers keep up to date themselves, so its cost depends on the pages the
+ * transaction modified rather than on the size of the pool.
+ * * 5b. BUFFER RINGS (Scan resistance)
+ * - A pin(blk, ring) that misses loads the block into a frame of the caller's BufferRing once the
+ * ring is full, instead of asking the policy for a victim; see BufferRing.
+ * - Transactions use a ring for large table scans and for temp tables (sort runs, materialized
+ * results), so a report query can no longer push the OLTP working set out of the pool.
+ * - Read-ahead for a ring pin goes into the ring too, with a window of at most half the ring.
+ * - If the policy has no victim left because too many frames are lent to rings, unpinned ring frames are taken back.
+ * * 6. BACKGROUND WRITER (Clean victims ahead of time)
+ * - Without it, a pin() whose victim is dirty writes the old page (and maybe forces the log) before it can read its own block.
+ * - startBackgroundWriter() starts a BufferWriter thread that periodically runs cleanAhead(): it asks the policy
+ * for the frames it will replace next (nextVictims()), and writes back the dirty, unpinned ones.
+ * - A pass forces the log once for the whole batch and then writes the pages sorted by file and block number,
+ * so the writes to each file are sequential.
+ * - Each page is written while the buffer is claimed, exactly as an eviction would, so nobody can pin
+ * (and modify) it half-way through the write.
+ * * 7. ONLINE RESIZING
+ * - resize() (or the PoolSize attribute of BufferMgrMXBean) grows or shrinks the pool of a running database.
+ * - Frames are never renumbered, because the ReplacementPolicy and the buffer rings refer to them
+ * by index. The frames in use are always 0 .. numBuffers()-1; the array behind them only grows.
+ * - Shrinking retires the frames at the top: the policy stops proposing them, each one is claimed as
+ * soon as it is unpinned, written back if dirty, and its page goes back to the PageArena (trimmed
+ * afterwards, so the memory is really released). A retired frame stays claimed, so nobody can pin it.
+ * - Growing revives retired frames and then adds new ones. Either way, queued waiters are served first.
+ * * 8. STATISTICS (Sizing the pool)
+ * - BufferStats counters for the whole pool and per file: hits and misses, blocks prefetched,
+ * evictions (and how many of them had to write a dirty page first), pages written by the background
+ * writer, pin waits with their latency and timeouts, and the number of pinned frames with its high-water mark.
+ * - getStats(), fileStats() and getFileStats() return BufferStatsSnapshots; the same data is published
+ * over JMX (BufferMgrMXBean). The hit ratio tells whether a bigger pool would help, the pinned high-water
+ * mark how small it can get before pins start to wait.
+ * - Blocks of temporary tables are all counted under one "temp" file (FileType.statsKey()).
+ * * 9. SEPARATE POOLS
+ * - A database can run several BufferMgrs side by side, one per FileClass (see BufferPools), e.g. to keep
+ * the catalog and index blocks resident or to cap the frames a sort can take. Each is a complete pool with
+ * its own policy, writer and statistics; extra pools are registered over JMX with a "pool" key.
  */
-public class BufferMgr {
-   private Buffer[] bufferpool;
-   private int numAvailable;
-   private static final long MAX_TIME = 10000; // 10 seconds
+public class BufferMgr implements BufferMgrMXBean {
+   private volatile Buffer[] bufferpool;   // AM: Frames 0 .. poolSize-1 are in use; any beyond are retired
+   private volatile int poolSize;
+   private FileMgr fm;
+   private String poolName;                // AM: Null for the main pool; otherwise the name of a BufferPools pool
+   private AtomicInteger numAvailable;
+   private static final long MAX_TIME = 10000; // 10 seconds; the default pin timeout
+   private volatile long pinTimeout = MAX_TIME;
 
-   private int clockHand = 0; // AM: Maintains Buffer pool clock hand; starting at index 0
-   private Map<BlockId, Buffer> bufferMap; // AM: Maintains HashMap using BlockId as the key to speed up search time to O(1)
+   private LogMgr lm;
+   private ReplacementPolicy policy;
+   private DirtyFrameIndex dirtyFrames = new DirtyFrameIndex();
+   private Map<BlockId, Buffer> bufferMap; // AM: Maintains a concurrent HashMap using BlockId as the key to speed up search time to O(1)
+   private Queue<Waiter> waitQueue = new ConcurrentLinkedQueue<>();   // AM: Threads waiting for a buffer, oldest first
+   private BufferStats stats = new BufferStats();
+   private Map<String, BufferStats> statsByFile = new ConcurrentHashMap<>();
+   private volatile PrintWriter trace = null;              // AM: When set, every pinned BlockId is written here (see ReplacementSimulator)
+   private volatile BufferWriter writer = null;
+   private int cleanLookahead;                             // AM: How many upcoming victims a cleaning pass looks at
+   public static final int RING_FRAMES = 16;               // AM: Most frames in one BufferRing (never more than a quarter of the pool)
+   public static final int DEFAULT_READ_AHEAD = 8;
+   private volatile int readAhead = DEFAULT_READ_AHEAD;    // AM: Blocks per sequential read-ahead window; 0 = off
+   private Map<String, SequentialRun> runs = new ConcurrentHashMap<>();   // AM: Per file: the sequential pattern seen so far
+   private static final int MAX_RUNS = 64;
+   private static final int WARM_UP_BATCH = 64;             // AM: Blocks per prefetch() call of a warm-up, so it never claims much of the pool at once
+
+   // AM: The pinning pattern of one file. Guarded by itself.
+   private static class SequentialRun {
+      int last = -1;          // AM: Most recently pinned block
+      int length = 0;         // AM: Number of consecutive blocks pinned in order, ending at last
+      int prefetchedTo = 0;   // AM: First block past the most recent read-ahead window
+   }
 
    /**
     * Creates a buffer manager having the specified number
@@ -49,12 +155,42 @@ public class BufferMgr {
     * @param numbuffs the number of buffer slots to allocate
     */
    public BufferMgr(FileMgr fm, LogMgr lm, int numbuffs) {
+      this(fm, lm, numbuffs, ReplacementStrategy.CLOCK);
+   }
+
+   /**
+    * Creates a buffer manager that uses the specified replacement policy.
+    * 
+    * @param numbuffs the number of buffer slots to allocate
+    * @param strategy the replacement policy
+    */
+   public BufferMgr(FileMgr fm, LogMgr lm, int numbuffs, ReplacementStrategy strategy) {
+      this(fm, lm, numbuffs, strategy, null);
+   }
+
+   /**
+    * Creates one of several buffer pools of a database (see BufferPools).
+    * The name tells the pools apart over JMX.
+    * 
+    * @param numbuffs the number of buffer slots to allocate
+    * @param strategy the replacement policy
+    * @param poolName the name of the pool, or null for the main pool
+    */
+   public BufferMgr(FileMgr fm, LogMgr lm, int numbuffs, ReplacementStrategy strategy, String poolName) {
+      this.fm = fm;
+      this.lm = lm;
+      this.poolName = poolName;
+      policy = strategy.create(numbuffs);
+      cleanLookahead = Math.max(4, numbuffs / 4);
       bufferpool = new Buffer[numbuffs];
-      numAvailable = numbuffs;
-      bufferMap = new HashMap<>(); // AM: Initailize the Map
+      poolSize = numbuffs;
+      numAvailable = new AtomicInteger(numbuffs);
+      bufferMap = new ConcurrentHashMap<>(2 * numbuffs); // AM: Initailize the Map
+      fm.pageArena().reserve(numbuffs);   // AM: The whole pool's page frames in as few off-heap slabs as possible
       for (int i = 0; i < numbuffs; i++) {
-         bufferpool[i] = new Buffer(fm, lm);
+         bufferpool[i] = new Buffer(fm, lm, i, dirtyFrames);
       }
+      registerMBean();
    }
 
    /**
@@ -62,8 +198,235 @@ public class BufferMgr {
     * 
     * @return the number of available buffers
     */
-   public synchronized int available() {
-      return numAvailable;
+   public int available() {
+      return numAvailable.get();
+   }
+
+   /**
+    * Returns the number of buffers in the pool.
+    * 
+    * @return the pool size
+    */
+   public int numBuffers() {
+      return poolSize;
+   }
+
+   /**
+    * Grows or shrinks the pool while the database is running.
+    * A shrink waits (up to the pin timeout) for each frame it removes to be
+    * unpinned; if a frame stays pinned, the pool keeps it and every frame below it.
+    * 
+    * @param numbuffs the new number of buffers
+    * @return the number of buffers in the pool afterwards
+    */
+   public synchronized int resize(int numbuffs) {
+      if (numbuffs < 1)
+         throw new IllegalArgumentException("a buffer pool needs at least one buffer");
+      if (numbuffs > poolSize)
+         grow(numbuffs);
+      else if (numbuffs < poolSize)
+         shrink(numbuffs);
+      cleanLookahead = Math.max(4, poolSize / 4);
+      return poolSize;
+   }
+
+   private void grow(int numbuffs) {
+      int from = poolSize;
+      Buffer[] pool = bufferpool;
+      fm.pageArena().reserve(Math.max(0, numbuffs - from - fm.pageArena().freePages()));
+      for (int i = from; i < Math.min(numbuffs, pool.length); i++)
+         pool[i].revive();                 // AM: Retired frames are still claimed
+      if (numbuffs > pool.length) {
+         pool = Arrays.copyOf(pool, numbuffs);
+         for (int i = bufferpool.length; i < numbuffs; i++) {
+            pool[i] = new Buffer(fm, lm, i, dirtyFrames);
+            pool[i].claim();               // AM: Kept back until the policy knows about it
+         }
+         bufferpool = pool;                // AM: Same Buffers at the old indices, so readers of the old array are fine
+      }
+      policy.resize(numbuffs);
+      poolSize = numbuffs;
+      numAvailable.addAndGet(numbuffs - from);
+      for (int i = from; i < numbuffs; i++)
+         release(pool[i]);                 // AM: Straight to a waiting pin, if there is one
+   }
+
+   private void shrink(int numbuffs) {
+      policy.resize(numbuffs);             // AM: No new blocks go into the frames being removed
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(pinTimeout);
+      int size = poolSize;
+      while (size > numbuffs) {
+         Buffer buff = bufferpool[size - 1];
+         if (!buff.claim()) {
+            if (System.nanoTime() - deadline > 0)
+               break;                      // AM: Still pinned; keep it (and the frames below it)
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            continue;
+         }
+         try {
+            evict(buff);
+         }
+         catch (RuntimeException e) {
+            release(buff);
+            policy.resize(size);
+            throw e;
+         }
+         buff.joinRing(null);
+         buff.retire();
+         numAvailable.decrementAndGet();
+         size--;
+         poolSize = size;
+      }
+      if (size > numbuffs)
+         policy.resize(size);              // AM: Give the frames that stayed pinned back to the policy
+      fm.pageArena().trim();
+   }
+
+   public int getPoolSize() {
+      return numBuffers();
+   }
+
+   public void setPoolSize(int numbuffs) {
+      resize(numbuffs);
+   }
+
+   public int getAvailable() {
+      return available();
+   }
+
+   public BufferStatsSnapshot getStats() {
+      return stats.snapshot("*");
+   }
+
+   /**
+    * Returns the statistics of the specified file's blocks.
+    * 
+    * @param filename the file
+    * @return a snapshot of the file's counters
+    */
+   public BufferStatsSnapshot fileStats(String filename) {
+      String key = FileType.statsKey(filename);
+      BufferStats s = statsByFile.get(key);
+      return (s == null) ? new BufferStats().snapshot(key) : s.snapshot(key);
+   }
+
+   // AM: Snapshots of every file that has been pinned, sorted by name
+   public Map<String, BufferStatsSnapshot> getFileStats() {
+      Map<String, BufferStatsSnapshot> result = new TreeMap<>();
+      for (Map.Entry<String, BufferStats> e : statsByFile.entrySet())
+         result.put(e.getKey(), e.getValue().snapshot(e.getKey()));
+      return result;
+   }
+
+   public void resetStatistics() {
+      stats.reset();
+      for (BufferStats s : statsByFile.values())
+         s.reset();
+   }
+
+   private BufferStats statsFor(BlockId blk) {
+      String key = FileType.statsKey(blk.fileName());
+      BufferStats s = statsByFile.get(key);
+      return (s != null) ? s : statsByFile.computeIfAbsent(key, f -> new BufferStats());
+   }
+
+   // AM: A pin took an unpinned buffer that holds blk
+   private void countFirstPin(BlockId blk) {
+      stats.firstPin();
+      statsFor(blk).firstPin();
+   }
+
+   private void countPin(BlockId blk, boolean hit) {
+      (hit ? stats.hits : stats.misses).increment();
+      BufferStats s = statsFor(blk);
+      (hit ? s.hits : s.misses).increment();
+   }
+
+   // AM: Publishes this BufferMgr over JMX, like FileMgr; a JMX failure never stops the database from starting
+   private void registerMBean() {
+      try {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         String pool = poolName == null ? "" : ",pool=" + ObjectName.quote(poolName);
+         ObjectName name = new ObjectName("simpledb:type=BufferMgr,name=" + ObjectName.quote(fm.directory().getPath()) + pool);
+         if (server.isRegistered(name))
+            server.unregisterMBean(name);
+         server.registerMBean(this, name);
+      }
+      catch (JMException e) {
+         // AM: Ignored; resize() still works
+      }
+   }
+
+   /**
+    * Starts a background thread that writes back dirty buffers
+    * before they are chosen for replacement.
+    * 
+    * @param intervalMillis the time between cleaning passes
+    */
+   public synchronized void startBackgroundWriter(long intervalMillis) {
+      if (writer != null)
+         return;
+      writer = new BufferWriter(this, intervalMillis);
+      writer.start();
+   }
+
+   /**
+    * Stops the background writer, if it is running.
+    */
+   public synchronized void stopBackgroundWriter() {
+      if (writer != null) {
+         writer.stop();
+         writer = null;
+      }
+   }
+
+   /**
+    * Writes back the dirty, unpinned buffers among the next victims of the
+    * replacement policy, in block order. Called by the background writer.
+    * 
+    * @return the number of buffers written
+    */
+   int cleanAhead() {
+      int[] frames = policy.nextVictims(cleanLookahead);
+      Buffer[] dirty = new Buffer[frames.length];
+      BlockId[] blks = new BlockId[frames.length];   // AM: Snapshot for sorting; a buffer may be re-assigned meanwhile
+      int count = 0;
+      long maxLsn = -1;
+      for (int frame : frames) {
+         Buffer buff = bufferpool[frame];
+         BlockId blk = buff.block();
+         if (buff.modifyingTx() >= 0 && !buff.isPinned() && blk != null) {
+            dirty[count] = buff;
+            blks[count] = blk;
+            maxLsn = Math.max(maxLsn, buff.logSequenceNumber());
+            count++;
+         }
+      }
+      if (count == 0)
+         return 0;
+      Integer[] order = new Integer[count];
+      for (int i = 0; i < count; i++)
+         order[i] = i;
+      Arrays.sort(order, Comparator.comparing((Integer i) -> blks[i].fileName()).thenComparingInt(i -> blks[i].number()));
+      lm.flush(maxLsn);                 // AM: One log force for the batch; the flushes below then find the log already on disk
+      int written = 0;
+      for (int i : order) {
+         Buffer buff = dirty[i];
+         if (!buff.claim())
+            continue;                   // AM: Pinned (or being evicted) since we looked; leave it
+         try {
+            if (blks[i].equals(buff.block()) && buff.modifyingTx() >= 0) {
+               buff.flush();
+               written++;
+               stats.cleanerWrites.increment();
+               statsFor(blks[i]).cleanerWrites.increment();
+            }
+         }
+         finally {
+            release(buff);              // AM: Someone may have skipped this buffer while it was claimed
+         }
+      }
+      return written;
    }
 
    /**
@@ -71,53 +434,416 @@ public class BufferMgr {
     * 
     * @param txnum the transaction's id number
     */
-   public synchronized void flushAll(int txnum) {
-      for (Buffer buff : bufferpool)
+   public void flushAll(int txnum) {
+      // AM: Only the buffers the transaction dirtied, instead of a scan of the whole pool
+      for (Buffer buff : dirtyFrames.take(txnum))
          if (buff.modifyingTx() == txnum)
-            buff.flush();
+            buff.flush();     // AM: Synchronized on the buffer, so it can't race with an eviction of the same buffer
+      fm.forceDataFiles();    // AM: Data pages must be on disk before the caller writes its commit/rollback record
    }
 
    /**
     * Unpins the specified data buffer. If its pin count
-    * goes to zero, then notify any waiting threads.
+    * goes to zero, then it is handed to the oldest waiting thread.
     * 
     * @param buff the buffer to be unpinned
     */
-   public synchronized void unpin(Buffer buff) {
-      buff.unpin();
-      if (!buff.isPinned()) {    // AM: Checks if any remaining pins exist on Buffer
-         numAvailable++;
-         notifyAll();
+   public void unpin(Buffer buff) {
+      BlockId blk = buff.block();   // AM: Read while we still hold a pin, so it can't change meanwhile
+      if (buff.unpin() == 0) {    // AM: Checks if any remaining pins exist on Buffer
+         numAvailable.incrementAndGet();
+         if (blk != null) {
+            stats.lastUnpin();
+            statsFor(blk).lastUnpin();
+         }
+         if (!waitQueue.isEmpty() && buff.claim())
+            release(buff);
+      }
+   }
+
+   /**
+    * Hands a claimed, unpinned buffer to the oldest waiting thread,
+    * or makes it available again if nobody is waiting.
+    * After un-claiming, the queue is checked once more: a thread that queued
+    * meanwhile may have skipped the buffer while it was still claimed.
+    */
+   private void release(Buffer buff) {
+      while (true) {
+         Waiter w;
+         while ((w = waitQueue.poll()) != null)
+            if (w.give(buff))
+               return;
+         buff.unclaim(0);
+         if (waitQueue.isEmpty() || !buff.claim())
+            return;
+      }
+   }
+
+   // AM: A thread waiting in pin(). Its slot goes from null to either the buffer handed to it or CANCELLED, exactly once.
+   private static class Waiter {
+      private static final Object CANCELLED = new Object();
+      private Thread thread = Thread.currentThread();
+      private AtomicReference<Object> slot = new AtomicReference<>();
+
+      boolean served() {
+         return slot.get() != null;
+      }
+
+      boolean give(Buffer buff) {
+         if (!slot.compareAndSet(null, buff))
+            return false;           // AM: Gave up (or was served) already
+         LockSupport.unpark(thread);
+         return true;
+      }
+
+      // AM: Stops waiting; returns a buffer that was handed over before that, if any
+      Buffer cancel() {
+         if (slot.compareAndSet(null, CANCELLED))
+            return null;
+         return (Buffer) slot.get();
+      }
+
+      // AM: Parks until a buffer is handed over or the deadline passes
+      Buffer await(long deadline) {
+         while (slot.get() == null) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || thread.isInterrupted())
+               break;
+            LockSupport.parkNanos(this, remaining);
+         }
+         return cancel();
       }
    }
 
+   /**
+    * Sets how long pin() waits for a buffer before it gives up.
+    * 
+    * @param millis the timeout in milliseconds
+    */
+   public void setPinTimeout(long millis) {
+      pinTimeout = millis;
+   }
+
    /**
     * Pins a buffer to the specified block, potentially
     * waiting until a buffer becomes available.
-    * If no buffer becomes available within a fixed
-    * time period, then a {@link BufferAbortException} is thrown.
+    * If no buffer becomes available within the pin timeout,
+    * then a {@link BufferAbortException} is thrown.
     * 
     * @param blk a reference to a disk block
     * @return the buffer pinned to that block
     */
-   public synchronized Buffer pin(BlockId blk) {
+   public Buffer pin(BlockId blk) {
+      return pin(blk, null);
+   }
+
+   /**
+    * Pins a buffer to the specified block like pin(blk),
+    * but a miss re-uses a frame of the specified ring.
+    * 
+    * @param blk a reference to a disk block
+    * @param ring the caller's buffer ring, or null to use the shared pool
+    * @return the buffer pinned to that block
+    */
+   public Buffer pin(BlockId blk, BufferRing ring) {
+      PrintWriter out = trace;
+      if (out != null)
+         synchronized (out) {
+            out.println(blk.fileName() + " " + blk.number());
+         }
+      Buffer buff = tryToPin(blk, ring, null, null, waitQueue.isEmpty());   // AM: A miss doesn't take a frame ahead of queued threads
+      if (buff == null)
+         buff = waitForBuffer(blk, ring);
+      detectSequential(blk, ring);
+      return buff;
+   }
+
+   // AM: Slow path of pin(): queue up and wait to be handed a buffer
+   private Buffer waitForBuffer(BlockId blk, BufferRing ring) {
+      long start = System.nanoTime();
+      long deadline = start + TimeUnit.MILLISECONDS.toNanos(pinTimeout);
+      boolean timedOut = false;
       try {
-         long timestamp = System.currentTimeMillis();
-         Buffer buff = tryToPin(blk);
-         while (buff == null && !waitingTooLong(timestamp)) {
-            wait(MAX_TIME);
-            buff = tryToPin(blk);
-         }
-         if (buff == null)
-            throw new BufferAbortException();
-         return buff;
-      } catch (InterruptedException e) {
-         throw new BufferAbortException();
+         while (true) {
+            Waiter w = new Waiter();
+            waitQueue.add(w);
+            // AM: Retry after queuing: a buffer released before we were in the queue was not handed to us
+            Buffer buff = tryToPin(blk, ring, null, w, true);
+            if (buff != null) {
+               Buffer handed = w.cancel();
+               if (handed != null)
+                  release(handed);      // AM: Pass it on to the next waiter
+               else
+                  waitQueue.remove(w);
+               return buff;
+            }
+            Buffer handed = w.await(deadline);
+            if (handed == null) {
+               waitQueue.remove(w);
+               timedOut = true;
+               throw new BufferAbortException();
+            }
+            buff = tryToPin(blk, ring, handed, null, true);
+            if (buff != null)
+               return buff;
+         }
+      }
+      finally {
+         long waited = System.nanoTime() - start;
+         stats.recordWait(waited, timedOut);
+         statsFor(blk).recordWait(waited, timedOut);
+      }
+   }
+
+   /**
+    * Starts (or, with null, stops) recording every pinned block, one
+    * "filename blocknumber" line per pin, for replay by {@link ReplacementSimulator}.
+    * 
+    * @param out where to write the trace
+    */
+   public void setTrace(PrintWriter out) {
+      trace = out;
+   }
+
+   /**
+    * Creates a buffer ring for bulk access.
+    * The caller passes it to pin() and gives it back with releaseRing().
+    * 
+    * @return a ring of at most RING_FRAMES frames
+    */
+   public BufferRing newRing() {
+      return new BufferRing(Math.max(2, Math.min(RING_FRAMES, poolSize / 4)));
+   }
+
+   /**
+    * Returns the frames of a ring to the shared pool. Their blocks stay
+    * resident, but are the first candidates for replacement.
+    * 
+    * @param ring a ring obtained from newRing()
+    */
+   public void releaseRing(BufferRing ring) {
+      for (int frame : ring.frames()) {
+         Buffer buff = bufferpool[frame];
+         if (buff.leaveRing(ring)) {
+            BlockId blk = buff.block();
+            if (blk != null)
+               policy.loaded(frame, blk, true);   // AM: Like a prefetched block: resident but never referenced
+            else
+               policy.emptied(frame);
+         }
+      }
+   }
+
+   /**
+    * Sets how many blocks are read ahead once a file is being pinned sequentially.
+    * 
+    * @param blocks the size of a read-ahead window, or 0 to turn read-ahead off
+    */
+   public void setReadAhead(int blocks) {
+      readAhead = blocks;
+   }
+
+   // AM: Called on every pin: detects in-order pinning of a file and keeps a read-ahead window in flight
+   private void detectSequential(BlockId blk, BufferRing ring) {
+      int window = readAhead;
+      if (ring != null)
+         window = Math.min(window, ring.size() / 2);   // AM: Never recycle ring frames that are still waiting for their first pin
+      if (window <= 0)
+         return;
+      SequentialRun run = runs.get(blk.fileName());
+      if (run == null) {
+         if (runs.size() >= MAX_RUNS)
+            runs.clear();               // AM: Only recent files matter (temp tables come and go)
+         run = runs.computeIfAbsent(blk.fileName(), f -> new SequentialRun());
+      }
+      int from, count;
+      synchronized (run) {
+         int n = blk.number();
+         if (n == run.last)
+            return;                     // AM: Re-pinning the same block (e.g. several records of one page)
+         if (n == run.last + 1)
+            run.length++;
+         else {
+            run.length = 1;             // AM: A jump (e.g. a scan starting over) ends the run and forgets its window
+            run.prefetchedTo = 0;
+         }
+         run.last = n;
+         if (run.length < 2 || n + window / 2 < run.prefetchedTo)
+            return;                     // AM: Not sequential yet, or still well inside the current window
+         from = Math.max(n + 1, run.prefetchedTo);
+         count = Math.min(window, numAvailable.get() / 2);
+         count = Math.min(count, fm.length(blk.fileName()) - from);
+         if (count <= 0)
+            return;
+         run.prefetchedTo = from + count;
+      }
+      List<BlockId> blks = new ArrayList<>(count);
+      for (int i = 0; i < count; i++)
+         blks.add(new BlockId(blk.fileName(), from + i));
+      prefetch(blks, ring);
+   }
+
+   /**
+    * Starts reading the specified blocks into unpinned, clean buffers
+    * without waiting for the reads to complete.
+    * Blocks that are already in the pool are skipped, and
+    * prefetching stops early if there are no such buffers left.
+    * Dirty buffers are left to the background writer: a prefetch never
+    * waits for a write (or for the log), so it never holds claimed
+    * buffers while a log force is in progress.
+    * The buffers are not pinned, so a prefetched block can still
+    * be replaced before it is used; that only costs a re-read.
+    * 
+    * @param blks the blocks that will be needed soon
+    */
+   public void prefetch(List<BlockId> blks) {
+      prefetch(blks, null);
+   }
+
+   /**
+    * Returns the data blocks in the pool, hottest first: the frames the
+    * replacement policy would not replace soon, then the others, in reverse
+    * order of replacement. Temp and log blocks are left out.
+    * 
+    * @return the resident blocks
+    */
+   public List<BlockId> residentBlocks() {
+      int size = poolSize;
+      int[] coldest = policy.nextVictims(size);
+      boolean[] listed = new boolean[size];
+      for (int frame : coldest)
+         if (frame < size)
+            listed[frame] = true;
+      List<Buffer> order = new ArrayList<>();
+      for (int frame = 0; frame < size; frame++)
+         if (!listed[frame])
+            order.add(bufferpool[frame]);   // AM: Not a candidate for replacement at all, e.g. referenced since the clock hand passed
+      for (int i = coldest.length - 1; i >= 0; i--)
+         if (coldest[i] < size)
+            order.add(bufferpool[coldest[i]]);
+      Set<BlockId> blks = new LinkedHashSet<>();
+      for (Buffer buff : order) {
+         BlockId blk = buff.block();
+         if (blk != null && FileType.of(blk.fileName()) == FileType.DATA)
+            blks.add(blk);
       }
+      return new ArrayList<>(blks);
    }
 
-   private boolean waitingTooLong(long starttime) {
-      return System.currentTimeMillis() - starttime > MAX_TIME;
+   /**
+    * Reads the specified blocks into the pool on a background thread, e.g.
+    * the residentBlocks() of the previous run. The hottest blocks that fit
+    * are read in file order, so consecutive blocks share one read.
+    * Blocks of files that no longer exist, or past the end of their file,
+    * are skipped; like prefetch(), the warm-up never takes a pinned or dirty buffer.
+    * 
+    * @param blks the blocks, hottest first
+    * @return the warm-up thread
+    */
+   public Thread warmUp(List<BlockId> blks) {
+      Thread t = new Thread(() -> {
+         List<BlockId> wanted = new ArrayList<>();
+         for (BlockId blk : blks) {
+            if (wanted.size() >= available())
+               break;
+            if (new File(fm.directory(), blk.fileName()).exists() && blk.number() < fm.length(blk.fileName()))
+               wanted.add(blk);
+         }
+         wanted.sort(Comparator.comparing(BlockId::fileName).thenComparingInt(BlockId::number));
+         for (int i = 0; i < wanted.size() && available() > 0; i += WARM_UP_BATCH)
+            prefetch(wanted.subList(i, Math.min(i + WARM_UP_BATCH, wanted.size())));
+      }, "simpledb-buffer-warmup");
+      t.setDaemon(true);
+      t.start();
+      return t;
+   }
+
+   private void prefetch(List<BlockId> blks, BufferRing ring) {
+      int budget = numAvailable.get();    // AM: Never wrap around and replace a block prefetched by this same call
+      List<Buffer> run = new ArrayList<>();   // AM: Claimed buffers assigned to consecutive blocks of one file, not yet read
+      for (BlockId blk : blks) {
+         if (findExistingBuffer(blk) != null)
+            continue;
+         Buffer buff = null;
+         if (budget > 0 && ring != null)
+            buff = ring.recycle(bufferpool, true);
+         boolean inRing = (buff != null);
+         if (buff == null && budget > 0)
+            buff = chooseCleanBuffer(blk);
+         if (buff == null) {
+            BufferWriter w = writer;
+            if (budget > 0 && w != null)
+               w.wakeup();
+            break;
+         }
+         budget--;
+         evict(buff);
+         if (!run.isEmpty() && !follows(run.get(run.size()-1).block(), blk)) {
+            startRead(run);
+            run.clear();
+         }
+         buff.assignToBlockDeferred(blk);
+         if (!inRing && ring != null)
+            inRing = ring.add(bufferpool, buff);
+         buff.joinRing(inRing ? ring : null);
+         run.add(buff);
+      }
+      startRead(run);
+   }
+
+   // AM: True if blk is the block right after prev in the same file
+   private boolean follows(BlockId prev, BlockId blk) {
+      return prev.fileName().equals(blk.fileName()) && prev.number() + 1 == blk.number();
+   }
+
+   // AM: Makes a run of claimed buffers visible in bufferMap, marked as loading, and only then issues the reads
+   private void startRead(List<Buffer> run) {
+      if (run.isEmpty())
+         return;
+      CompletableFuture<Void> loaded = new CompletableFuture<>();
+      List<Buffer> published = new ArrayList<>();
+      List<Page> pages = new ArrayList<>();
+      for (Buffer buff : run) {
+         Page page = buff.contents();           // AM: Taken first; contents() would wait for our own read after loading()
+         buff.loading(loaded);                  // AM: Anyone who pins the block from now on waits for the read
+         BlockId blk = buff.block();
+         if (bufferMap.putIfAbsent(blk, buff) == null) {
+            published.add(buff);
+            pages.add(page);
+            stats.prefetches.increment();
+            statsFor(blk).prefetches.increment();
+            if (buff.ring() == null)
+               policy.loaded(buff.frame(), blk, true);   // AM: Ring frames stay out of the policy until the ring is released
+         }
+         else {
+            buff.loading(null);                 // AM: Someone pinned the block meanwhile; this buffer stays empty
+            buff.assignToBlockDeferred(null);
+            buff.joinRing(null);
+            policy.emptied(buff.frame());
+            release(buff);
+         }
+      }
+      // AM: One read per stretch of consecutive blocks that is left
+      List<CompletableFuture<Void>> reads = new ArrayList<>();
+      int start = 0;
+      for (int i = 1; i <= published.size(); i++) {
+         if (i < published.size() && follows(published.get(i-1).block(), published.get(i).block()))
+            continue;
+         BlockId first = published.get(start).block();
+         if (i - start == 1)
+            reads.add(fm.readAsync(first, pages.get(start)));
+         else
+            reads.add(fm.readBlocksAsync(first.fileName(), first.number(), pages.subList(start, i).toArray(new Page[0])));
+         start = i;
+      }
+      CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[0])).whenComplete((v, e) -> {
+         if (e == null)
+            loaded.complete(null);
+         else
+            loaded.completeExceptionally(e);
+      });
+      for (Buffer buff : published)
+         release(buff);
    }
 
    /**
@@ -128,33 +854,129 @@ public class BufferMgr {
     * Returns a null value if there are no available buffers.
     * 
     * @param blk a reference to a disk block
+    * @param ring the caller's buffer ring, or null
+    * @param handed a claimed buffer handed to a waiting thread, to be used (or passed on) instead of choosing a victim
+    * @param self the calling thread's queue entry if it is already queued; then this gives up as soon as it is handed a buffer
+    * @param mayChoose whether a victim may be chosen if blk is not resident
     * @return the pinned buffer
     */
-   private Buffer tryToPin(BlockId blk) {
-      Buffer buff = findExistingBuffer(blk);
-      if (buff == null) {
-         buff = chooseUnpinnedBuffer();
-         if (buff == null) // AM: Checks if an unpinned Buffer was found
-            return null;
-
-         // AM: If this buffer was holding an old block, remove that mapping
-         BlockId oldBlk = buff.block();
-         if (oldBlk != null) {
-            bufferMap.remove(oldBlk);
+   private Buffer tryToPin(BlockId blk, BufferRing ring, Buffer handed, Waiter self, boolean mayChoose) {
+      while (true) {
+         Buffer buff = findExistingBuffer(blk);
+         if (buff != null && buff == handed) {
+            // AM: We were handed the very buffer that holds blk (still claimed for us), so just keep it
+            buff.unclaim(1);
+            numAvailable.decrementAndGet();
+            countFirstPin(blk);
+            countPin(blk, true);
+            policy.pinned(buff.frame());
+            return buff;
+         }
+         if (buff != null) {
+            int previous = buff.tryPin();
+            if (previous != Buffer.CLAIMED) {
+               if (blk.equals(buff.block())) {   // AM: Re-checked after pinning: the buffer may have been re-assigned since the lookup
+                  if (previous == 0) {
+                     numAvailable.decrementAndGet();   // AM: Reduce Buffers available if Buffer was not pinned
+                     countFirstPin(blk);
+                  }
+                  countPin(blk, true);
+                  policy.pinned(buff.frame());
+                  if (handed != null)
+                     release(handed);         // AM: Didn't need it after all
+                  return buff;
+               }
+               if (previous == 0) {
+                  numAvailable.decrementAndGet();
+                  BlockId other = buff.block();
+                  if (other != null)
+                     countFirstPin(other);       // AM: So that the unpin below balances
+               }
+               unpin(buff);
+            }
+            if (self != null && self.served())
+               return null;                   // AM: The claimed buffer may be the one handed to us; collect it first
+            if (handed != null) {
+               release(handed);               // AM: Never spin while holding a claim: its holder may be spinning on ours
+               return null;
+            }
+            Thread.yield();                   // AM: Being re-assigned (possibly flushed) right now; look again
+            continue;
          }
 
-         buff.assignToBlock(blk); // AM: Assign new Block to Buffer
-
-         // Add the new mapping
-         bufferMap.put(blk, buff);
+         boolean inRing = false;
+         if (handed != null) {
+            buff = handed;
+            handed = null;
+            if (buff.ring() != null)
+               buff.joinRing(null);          // AM: A ring frame; the policy doesn't know about it anyway
+            else {
+               int frame = buff.frame();
+               policy.victim(blk, f -> f == frame);   // AM: Lets the policy do its usual bookkeeping for this frame
+            }
+         }
+         else if (!mayChoose)
+            return null;
+         else {
+            buff = (ring != null) ? ring.recycle(bufferpool, false) : null;
+            inRing = (buff != null);
+            if (buff == null)
+               buff = chooseUnpinnedBuffer(blk);
+            if (buff == null) // AM: Checks if an unpinned Buffer was found
+               return null;
+         }
+         evict(buff);
+         buff.assignToBlockDeferred(blk);      // AM: Assign new Block to Buffer
+         CompletableFuture<Void> loaded = new CompletableFuture<>();
+         buff.loading(loaded);
+         buff.unclaim(1);                      // AM: Pinned for us; others that pin it now wait for the read in contents()
+         numAvailable.decrementAndGet();
+         if (bufferMap.putIfAbsent(blk, buff) != null) {
+            // AM: Another thread loaded the same block first; give the victim back and use theirs
+            loaded.complete(null);
+            buff.assignToBlockDeferred(null);
+            buff.joinRing(null);
+            policy.emptied(buff.frame());
+            unpin(buff);
+            continue;
+         }
+         if (!inRing && ring != null)
+            inRing = ring.add(bufferpool, buff);
+         buff.joinRing(inRing ? ring : null);
+         if (!inRing)
+            policy.loaded(buff.frame(), blk, false);
+         countFirstPin(blk);
+         countPin(blk, false);
+         try {
+            buff.read(loaded);
+         }
+         catch (RuntimeException e) {
+            bufferMap.remove(blk, buff);
+            unpin(buff);
+            throw e;
+         }
+         return buff;
       }
+   }
 
-      // AM: Reduce Buffers available if Buffer is not pinned
-      if (!buff.isPinned())
-         numAvailable--;
-      buff.pin();
-
-      return buff;
+   // AM: Writes back a claimed victim (if dirty) and removes its old mapping
+   private void evict(Buffer buff) {
+      BlockId oldBlk = buff.block();
+      boolean dirty = buff.modifyingTx() >= 0;
+      BufferWriter w = writer;
+      if (w != null && dirty)
+         w.wakeup();                      // AM: The writer fell behind; get it going on the next victims
+      buff.flush();
+      if (oldBlk != null) {
+         bufferMap.remove(oldBlk, buff);  // AM: Only if it still maps to this buffer
+         BufferStats s = statsFor(oldBlk);
+         stats.evictions.increment();
+         s.evictions.increment();
+         if (dirty) {
+            stats.dirtyEvictions.increment();
+            s.dirtyEvictions.increment();
+         }
+      }
    }
 
    private Buffer findExistingBuffer(BlockId blk) {
@@ -162,25 +984,40 @@ public class BufferMgr {
       return bufferMap.get(blk); // AM: Returns null if no Buffer matching blk found
    }
 
-   private Buffer chooseUnpinnedBuffer() {
-      // AM: 1. Check every Buffer once (up to numbuffs times)
-      for (int i = 0; i < bufferpool.length; i++) {
+   // AM: Like chooseUnpinnedBuffer, but passes over dirty buffers
+   private Buffer chooseCleanBuffer(BlockId blk) {
+      int frame = policy.victim(blk, f -> claimIfClean(bufferpool[f]));
+      return (frame >= 0) ? bufferpool[frame] : takeBackRingFrame(true);
+   }
 
-         // AM: 2. Calculate the index in the "Circle"
-         // AM: If clockHand is 6 and i is 1, index is 7. Use Modulo to create circle.
-         int index = (clockHand + i) % bufferpool.length;
+   // AM: Returns a claimed buffer for blk, or null if every buffer is pinned (or being claimed by someone else)
+   private Buffer chooseUnpinnedBuffer(BlockId blk) {
+      // AM: The policy proposes frames in its order of preference; the first unpinned one is claimed
+      int frame = policy.victim(blk, f -> bufferpool[f].claim());
+      return (frame >= 0) ? bufferpool[frame] : takeBackRingFrame(false);
+   }
 
-         Buffer buff = bufferpool[index];
+   private boolean claimIfClean(Buffer buff) {
+      if (buff.modifyingTx() >= 0 || !buff.claim())
+         return false;
+      if (buff.modifyingTx() >= 0) {   // AM: Modified and unpinned just before the claim
+         release(buff);
+         return false;
+      }
+      return true;
+   }
 
-         // AM: 3. Pick the first unpinned Buffer we find
-         if (!buff.isPinned()) {
-            // AM: 4. Update the clockHand to the NEXT spot for next time
-            clockHand = (index + 1) % bufferpool.length;
+   // AM: Last resort when the policy has no victim: an unpinned frame that is lent to some ring
+   private Buffer takeBackRingFrame(boolean cleanOnly) {
+      for (Buffer buff : bufferpool) {
+         if (buff.ring() == null || !(cleanOnly ? claimIfClean(buff) : buff.claim()))
+            continue;
+         if (buff.ring() != null) {
+            buff.joinRing(null);
             return buff;
          }
+         release(buff);                // AM: Its ring was released just before the claim, so the policy has it again
       }
-
-      // AM: If we looked at all Buffers and found nothing
       return null;
    }
 
@@ -0,0 +1,73 @@
+package simpledb.buffer;
+
+import java.util.Random;
+import simpledb.file.BlockId;
+import simpledb.server.SimpleDB;
+
+/**
+ * AM: Multi-threaded pin/unpin benchmark for BufferMgr.
+ * Every thread repeatedly pins and unpins random blocks from a set that fits in the pool,
+ * so after warm-up every pin is a hit (the case that matters most for concurrency).
+ * Two modes are measured for 1..MAX_THREADS threads:
+ *    serialized -> every pin/unpin pair goes through one shared monitor, which is how BufferMgr
+ *                  behaved when pin() and unpin() were synchronized
+ *    concurrent -> BufferMgr as is (concurrent map lookup + atomic pin count)
+ * Usage: java simpledb.buffer.BufferMgrBenchmark [buffers] [millisPerRun]
+ */
+public class BufferMgrBenchmark {
+   private static final int MAX_THREADS = 32;
+
+   public static void main(String[] args) throws Exception {
+      int buffers = (args.length > 0) ? Integer.parseInt(args[0]) : 256;
+      long millis = (args.length > 1) ? Long.parseLong(args[1]) : 1000;
+      SimpleDB db = new SimpleDB("buffermgrbenchmark", 4096, buffers);
+      BufferMgr bm = db.bufferMgr();
+      int nblocks = buffers / 2;     // AM: Resident set; leaves room for every thread's pin
+      for (int i=0; i<nblocks; i++)
+         bm.unpin(bm.pin(new BlockId("bench.tbl", i)));
+
+      System.out.println("threads  serialized(pins/s)  concurrent(pins/s)  speedup");
+      for (int threads=1; threads<=MAX_THREADS; threads*=2) {
+         double serial = run(bm, threads, nblocks, millis, true);
+         double concurrent = run(bm, threads, nblocks, millis, false);
+         System.out.printf("%7d  %18.0f  %18.0f  %7.2f%n", threads, serial, concurrent, concurrent / serial);
+      }
+   }
+
+   private static double run(BufferMgr bm, int threads, int nblocks, long millis, boolean serialized) throws InterruptedException {
+      Object globalLock = new Object();   // AM: Stands in for the old BufferMgr monitor
+      long[] counts = new long[threads];
+      long deadline = System.currentTimeMillis() + millis;
+      Thread[] workers = new Thread[threads];
+      for (int t=0; t<threads; t++) {
+         final int id = t;
+         workers[t] = new Thread(() -> {
+            Random rand = new Random(id);
+            long n = 0;
+            while (System.currentTimeMillis() < deadline) {
+               BlockId blk = new BlockId("bench.tbl", rand.nextInt(nblocks));
+               if (serialized) {
+                  Buffer buff;
+                  synchronized (globalLock) {
+                     buff = bm.pin(blk);
+                  }
+                  synchronized (globalLock) {
+                     bm.unpin(buff);
+                  }
+               }
+               else
+                  bm.unpin(bm.pin(blk));
+               n++;
+            }
+            counts[id] = n;
+         });
+         workers[t].start();
+      }
+      long total = 0;
+      for (int t=0; t<threads; t++) {
+         workers[t].join();
+         total += counts[t];
+      }
+      return total * 1000.0 / millis;
+   }
+}
@@ -0,0 +1,29 @@
+package simpledb.buffer;
+
+import java.util.Map;
+
+/**
+ * AM: The JMX management interface of BufferMgr.
+ * Each BufferMgr registers itself as simpledb:type=BufferMgr,name="<db directory>".
+ * Setting PoolSize resizes the running pool (see BufferMgr.resize()); Stats and FileStats are
+ * the numbers to size it by.
+ */
+public interface BufferMgrMXBean {
+   /** The number of buffers in the pool. */
+   int getPoolSize();
+
+   /** Grows or shrinks the pool to the given number of buffers. */
+   void setPoolSize(int numbuffs);
+
+   /** The number of unpinned buffers. */
+   int getAvailable();
+
+   /** The statistics of the whole pool. */
+   BufferStatsSnapshot getStats();
+
+   /** A snapshot of the statistics of every file that has been pinned, keyed by file name. */
+   Map<String,BufferStatsSnapshot> getFileStats();
+
+   /** Clears all statistics. */
+   void resetStatistics();
+}
@@ -5,8 +5,7 @@ import simpledb.file.*;
 
 public class BufferMgrTest {
    public static void main(String[] args) throws Exception {
-      //SimpleDB db = new SimpleDB("buffermgrtest", 400, 3); // only 3 buffers
-      SimpleDB db = new SimpleDB("buffermgrtest", 400, 4); // AM: Increased to 4 Buffers due to Log stored in Buffer
+      SimpleDB db = new SimpleDB("buffermgrtest", 400, 3); // only 3 buffers (AM: the log has its own pages again, see LogMgr)
       BufferMgr bm = db.bufferMgr();
 
       Buffer[] buff = new Buffer[6]; 
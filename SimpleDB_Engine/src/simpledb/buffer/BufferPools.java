@@ -0,0 +1,145 @@
+package simpledb.buffer;
+
+import java.util.*;
+import simpledb.file.BlockId;
+
+/**
+ * AM - Hybrid personal & AI write-up architecture
+ * The BufferPools class is the "Router" between a transaction and the buffer pools.
+ * * ARCHITECTURE OVERVIEW:
+ * * 1. ONE POOL PER FILE CLASS
+ * - The main pool caches table blocks. Index, catalog and temp files (FileClass)
+ * can each be given a BufferMgr of their own; a class without one shares the main pool.
+ * - The catalog and the upper levels of the indexes then stay in memory however much table
+ * data is scanned, and a sort can use up its own pool but never steal frames from the others.
+ * * 2. ROUTING
+ * - poolFor() picks the pool by BlockId.fileName(). A block always maps to the same pool,
+ * so it is never cached twice, and each pool keeps its own policy, statistics and writer.
+ * * 3. POOL-WIDE OPERATIONS
+ * - flushAll(), prefetch(), residentBlocks() and warmUp() are spread over the pools,
+ * so Transaction and SimpleDB don't need to know how many there are.
+ * - The pools are fixed when BufferPools is created, so routing needs no locking.
+ */
+public class BufferPools {
+   private final BufferMgr main;
+   private final Map<FileClass,BufferMgr> pools = new EnumMap<>(FileClass.class);
+
+   /**
+    * A single pool for every file.
+    * @param main the buffer manager
+    */
+   public BufferPools(BufferMgr main) {
+      this(main, Collections.emptyMap());
+   }
+
+   /**
+    * The main pool, plus separate pools for some file classes.
+    * @param main the pool of table blocks, and of any class not in others
+    * @param others the separate pools
+    */
+   public BufferPools(BufferMgr main, Map<FileClass,BufferMgr> others) {
+      this.main = main;
+      pools.putAll(others);
+      pools.put(FileClass.TABLE, main);
+   }
+
+   /**
+    * Returns the pool that caches the blocks of the specified file.
+    * @param filename the name of the file
+    * @return its buffer manager
+    */
+   public BufferMgr poolFor(String filename) {
+      return pool(FileClass.of(filename));
+   }
+
+   /**
+    * Returns the pool of the specified file class.
+    * @param fc the file class
+    * @return its buffer manager, or the main pool if the class has none of its own
+    */
+   public BufferMgr pool(FileClass fc) {
+      BufferMgr bm = pools.get(fc);
+      return bm != null ? bm : main;
+   }
+
+   public BufferMgr mainPool() {
+      return main;
+   }
+
+   /**
+    * Returns each pool once, the main pool first.
+    * @return the buffer managers
+    */
+   public List<BufferMgr> all() {
+      List<BufferMgr> all = new ArrayList<>();
+      all.add(main);
+      for (BufferMgr bm : pools.values())
+         if (!all.contains(bm))
+            all.add(bm);
+      return all;
+   }
+
+   /**
+    * Flushes the buffers the transaction modified, in every pool.
+    * @param txnum the transaction's id number
+    */
+   public void flushAll(int txnum) {
+      for (BufferMgr bm : all())
+         bm.flushAll(txnum);
+   }
+
+   /**
+    * Hands each pool the blocks that belong to it.
+    * @param blks the blocks that will be needed soon
+    */
+   public void prefetch(List<BlockId> blks) {
+      for (Map.Entry<BufferMgr,List<BlockId>> e : byPool(blks).entrySet())
+         e.getKey().prefetch(e.getValue());
+   }
+
+   /**
+    * Returns the data blocks in all the pools, each pool's hottest first.
+    * @return the resident blocks
+    */
+   public List<BlockId> residentBlocks() {
+      List<BlockId> blks = new ArrayList<>();
+      for (BufferMgr bm : all())
+         blks.addAll(bm.residentBlocks());
+      return blks;
+   }
+
+   /**
+    * Starts a warm-up of each pool with the blocks that belong to it.
+    * @param blks the blocks, hottest first
+    * @return the warm-up threads
+    */
+   public List<Thread> warmUp(List<BlockId> blks) {
+      List<Thread> threads = new ArrayList<>();
+      for (Map.Entry<BufferMgr,List<BlockId>> e : byPool(blks).entrySet())
+         threads.add(e.getKey().warmUp(e.getValue()));
+      return threads;
+   }
+
+   public void setPinTimeout(long millis) {
+      for (BufferMgr bm : all())
+         bm.setPinTimeout(millis);
+   }
+
+   public void startBackgroundWriter(long intervalMillis) {
+      for (BufferMgr bm : all())
+         bm.startBackgroundWriter(intervalMillis);
+   }
+
+   public void stopBackgroundWriter() {
+      for (BufferMgr bm : all())
+         bm.stopBackgroundWriter();
+   }
+
+   // AM: Splits the blocks by pool, keeping their order within each pool
+   private Map<BufferMgr,List<BlockId>> byPool(List<BlockId> blks) {
+      Map<BufferMgr,List<BlockId>> split = new LinkedHashMap<>();
+      for (BlockId blk : blks)
+         split.computeIfAbsent(poolFor(blk.fileName()), bm -> new ArrayList<>()).add(blk);
+      return split;
+   }
+}
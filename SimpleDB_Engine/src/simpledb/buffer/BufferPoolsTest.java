@@ -0,0 +1,39 @@
+package simpledb.buffer;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+import simpledb.tx.Transaction;
+
+public class BufferPoolsTest {
+   public static void main(String[] args) throws Exception {
+      for (String name : new String[] {"student.tbl", "tblcat.tbl", "majoridxleaf", "majoridxdir", "temp3.tbl", "simpledb.log"})
+         System.out.println(name + " -> " + FileClass.of(name));
+
+      SimpleDB.CATALOG_BUFFERS = 4;
+      SimpleDB.TEMP_BUFFERS = 3;
+      SimpleDB db = new SimpleDB("bufferpoolstest");
+      BufferPools pools = db.bufferPools();
+      BufferMgr main = pools.mainPool();
+      BufferMgr catalog = pools.pool(FileClass.CATALOG);
+      BufferMgr temp = pools.pool(FileClass.TEMP);
+      System.out.println("Pools: " + pools.all().size() + ", index files use the main pool: " + (pools.pool(FileClass.INDEX) == main));
+
+      // AM: A sort writing many temp blocks only recycles the frames of its own pool
+      Transaction tx = db.newTx();
+      int mainAvailable = main.available();
+      for (int i = 0; i < 10; i++) {
+         BlockId blk = tx.append("temp1.tbl");
+         tx.pin(blk);
+         tx.setInt(blk, 0, i, false);
+         tx.unpin(blk);
+      }
+      System.out.println("Temp pool misses " + temp.getStats().getMisses() + ", main pool available before " + mainAvailable
+            + " and after " + main.available());
+
+      // AM: The catalog is served from its own pool
+      catalog.resetStatistics();
+      db.mdMgr().getLayout("tblcat", tx);
+      System.out.println("Catalog pins served by the catalog pool: " + (catalog.getStats().getHits() + catalog.getStats().getMisses() > 0));
+      tx.commit();
+   }
+}
@@ -0,0 +1,62 @@
+package simpledb.buffer;
+
+import java.lang.management.ManagementFactory;
+import javax.management.*;
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+
+public class BufferResizeTest {
+   public static void main(String[] args) throws Exception {
+      SimpleDB db = new SimpleDB("bufferresizetest", 400, 8);
+      FileMgr fm = db.fileMgr();
+      BufferMgr bm = db.bufferMgr();
+      Page p = new Page(fm.blockSize());
+      for (int i = 0; i < 20; i++)
+         fm.write(fm.append("resizefile"), p);
+      System.out.println("Pool size " + bm.numBuffers() + ", available " + bm.available());
+
+      // AM: Grow, and use all the new frames at once
+      bm.resize(16);
+      Buffer[] buffs = new Buffer[bm.available()];
+      for (int i = 0; i < buffs.length; i++)
+         buffs[i] = bm.pin(new BlockId("resizefile", i));
+      System.out.println("After growing to 16: pinned " + buffs.length + " blocks, available " + bm.available());
+
+      // AM: Modify a block, then shrink; the change must survive its frame being retired
+      buffs[5].contents().setInt(0, 555);
+      buffs[5].setModified(1, -1);
+      for (Buffer buff : buffs)
+         bm.unpin(buff);
+      System.out.println("After shrinking to 4: pool size " + bm.resize(4) + ", available " + bm.available());
+      Buffer b5 = bm.pin(new BlockId("resizefile", 5));
+      System.out.println("Block 5 holds " + b5.contents().getInt(0));
+      bm.unpin(b5);
+
+      // AM: A shrink can't take frames that stay pinned
+      bm.setPinTimeout(200);
+      buffs = new Buffer[bm.available()];
+      for (int i = 0; i < buffs.length; i++)
+         buffs[i] = bm.pin(new BlockId("resizefile", i));
+      System.out.println("Shrinking a fully pinned pool to 2: pool size " + bm.resize(2));
+
+      // AM: Growing serves a pin that is waiting for a buffer
+      bm.setPinTimeout(10000);
+      Buffer[] waited = new Buffer[1];
+      Thread t = new Thread(() -> waited[0] = bm.pin(new BlockId("resizefile", 10)));
+      t.start();
+      while (t.getState() != Thread.State.TIMED_WAITING)   // AM: Parked in the wait queue
+         Thread.sleep(10);
+      bm.resize(6);
+      t.join();
+      System.out.println("Waiting pin served after growing: " + (waited[0] != null));
+      bm.unpin(waited[0]);
+      for (Buffer buff : buffs)
+         bm.unpin(buff);
+
+      // AM: The same through JMX
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName("simpledb:type=BufferMgr,name=" + ObjectName.quote(new java.io.File("bufferresizetest").getPath()));
+      server.setAttribute(name, new Attribute("PoolSize", 10));
+      System.out.println("JMX pool size " + server.getAttribute(name, "PoolSize") + ", available " + server.getAttribute(name, "Available"));
+   }
+}
@@ -0,0 +1,81 @@
+package simpledb.buffer;
+
+import java.util.Arrays;
+
+/**
+ * AM: A small private set of buffer frames for bulk access (a "buffer ring", as in
+ * PostgreSQL's buffer access strategies). Obtained from BufferMgr.newRing().
+ * A miss pinned through a ring first fills the ring with frames taken from the shared pool
+ * as usual; once the ring is full, the ring's own frames are recycled round-robin instead.
+ * A large scan, sort or temp table therefore never occupies more than size() frames, and the
+ * rest of the pool (index roots, hot OLTP pages) survives it.
+ * While a frame is lent to a ring, the ReplacementPolicy does not know about it;
+ * BufferMgr.releaseRing() gives the frames back, as blocks that were read but never re-used.
+ * Hits are unaffected: a block that is already in the pool is pinned where it is.
+ * A ring belongs to one transaction (see simpledb.tx.BufferList), but it is safe to share.
+ */
+public class BufferRing {
+   private int[] frames;
+   private int count = 0;        // AM: Slots filled so far
+   private int next = 0;         // AM: Slot to recycle next
+
+   BufferRing(int size) {
+      frames = new int[size];
+   }
+
+   /**
+    * @return the most frames the ring will hold
+    */
+   public int size() {
+      return frames.length;
+   }
+
+   /**
+    * Claims the next unpinned frame of a full ring.
+    * @param pool the buffer pool
+    * @param cleanOnly pass over dirty frames (for prefetching)
+    * @return the claimed buffer, or null if the ring isn't full yet or all its frames are in use
+    */
+   synchronized Buffer recycle(Buffer[] pool, boolean cleanOnly) {
+      if (count < frames.length)
+         return null;
+      for (int i = 0; i < count; i++) {
+         int slot = (next + i) % count;
+         Buffer buff = pool[frames[slot]];
+         if (buff.ring() != this || (cleanOnly && buff.modifyingTx() >= 0) || !buff.claim())
+            continue;
+         if (buff.ring() != this) {    // AM: Taken back by the shared pool just before the claim
+            buff.unclaim(0);
+            continue;
+         }
+         next = (slot + 1) % count;
+         return buff;
+      }
+      return null;
+   }
+
+   /**
+    * Adds a frame taken from the shared pool, if there is room for it.
+    * Room is a free slot, or a slot whose frame the shared pool has taken back.
+    * @param pool the buffer pool
+    * @param buff the claimed buffer
+    * @return true if the frame is now part of the ring
+    */
+   synchronized boolean add(Buffer[] pool, Buffer buff) {
+      if (count < frames.length) {
+         frames[count++] = buff.frame();
+         return true;
+      }
+      for (int slot = 0; slot < count; slot++)
+         if (pool[frames[slot]].ring() != this) {
+            frames[slot] = buff.frame();
+            return true;
+         }
+      return false;
+   }
+
+   // AM: The frames in the ring's slots (some may have been taken back already)
+   synchronized int[] frames() {
+      return Arrays.copyOf(frames, count);
+   }
+}
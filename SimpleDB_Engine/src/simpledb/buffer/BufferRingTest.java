@@ -0,0 +1,45 @@
+package simpledb.buffer;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+
+public class BufferRingTest {
+   public static void main(String[] args) throws Exception {
+      SimpleDB db = new SimpleDB("bufferringtest", 400, 16);
+      FileMgr fm = db.fileMgr();
+      BufferMgr bm = db.bufferMgr();
+      Page p = new Page(fm.blockSize());
+      for (int i = 0; i < 4; i++)
+         fm.write(fm.append("hotfile"), p);
+      for (int i = 0; i < 100; i++)
+         fm.write(fm.append("bigfile"), p);
+
+      // AM: Make 4 blocks of hotfile resident
+      for (int i = 0; i < 4; i++)
+         bm.unpin(bm.pin(new BlockId("hotfile", i)));
+      fm.resetStatistics();
+
+      // AM: Scan bigfile through a ring, then touch the hot blocks again
+      BufferRing ring = bm.newRing();
+      System.out.println("Ring size: " + ring.size());
+      for (int i = 0; i < 100; i++) {
+         Buffer buff = bm.pin(new BlockId("bigfile", i), ring);
+         buff.contents();   // AM: Waits for a read-ahead that is still in flight
+         bm.unpin(buff);
+      }
+      bm.releaseRing(ring);
+      for (int i = 0; i < 4; i++)
+         bm.unpin(bm.pin(new BlockId("hotfile", i)));
+      System.out.println("Blocks of bigfile read: " + fm.fileStats("bigfile").getReads());
+      System.out.println("Blocks of hotfile re-read after the ring scan: " + fm.fileStats("hotfile").getReads());
+
+      // AM: The same scan without a ring pushes them out
+      for (int i = 0; i < 100; i++)
+         bm.unpin(bm.pin(new BlockId("bigfile", i)));
+      fm.resetStatistics();
+      for (int i = 0; i < 4; i++)
+         bm.unpin(bm.pin(new BlockId("hotfile", i)));
+      System.out.println("Blocks of hotfile re-read after a shared scan: " + fm.fileStats("hotfile").getReads());
+      System.out.println("Available buffers: " + bm.available());
+   }
+}
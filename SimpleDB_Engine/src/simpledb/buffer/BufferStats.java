@@ -0,0 +1,57 @@
+package simpledb.buffer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import simpledb.file.LatencyHistogram;
+
+/**
+ * AM: The live counters of a BufferMgr, for the whole pool or for the blocks of one file.
+ * Counters are LongAdders, as in FileStats, so pinning threads only touch their own stripe.
+ * The pinned-frame count is exact (it goes up on a buffer's first pin and down on its last unpin),
+ * and its high-water mark is what BUFFER_SIZE has to cover for the workload not to wait.
+ * snapshot() turns the counters into a BufferStatsSnapshot.
+ */
+class BufferStats {
+   LongAdder hits = new LongAdder();             // AM: Pins that found the block in the pool
+   LongAdder misses = new LongAdder();           // AM: Pins that had to read the block
+   LongAdder prefetches = new LongAdder();       // AM: Blocks read ahead (read-ahead, prefetch(), warm-up)
+   LongAdder evictions = new LongAdder();        // AM: Blocks replaced to make room for another
+   LongAdder dirtyEvictions = new LongAdder();   // AM: ... of which the replacing thread had to write back first
+   LongAdder cleanerWrites = new LongAdder();    // AM: Blocks written back ahead of time by the background writer
+   LongAdder pinWaits = new LongAdder();
+   LongAdder pinTimeouts = new LongAdder();
+   LatencyHistogram pinWaitLatency = new LatencyHistogram();
+   AtomicInteger pinned = new AtomicInteger();
+   AtomicInteger pinnedHighWater = new AtomicInteger();
+
+   void firstPin() {
+      int n = pinned.incrementAndGet();
+      if (n > pinnedHighWater.get())                // AM: Read first; the mark rarely moves
+         pinnedHighWater.accumulateAndGet(n, Math::max);
+   }
+
+   void lastUnpin() {
+      pinned.decrementAndGet();
+   }
+
+   void recordWait(long nanos, boolean timedOut) {
+      pinWaits.increment();
+      if (timedOut)
+         pinTimeouts.increment();
+      pinWaitLatency.record(nanos);
+   }
+
+   BufferStatsSnapshot snapshot(String name) {
+      return new BufferStatsSnapshot(name, hits.sum(), misses.sum(), prefetches.sum(), evictions.sum(),
+            dirtyEvictions.sum(), cleanerWrites.sum(), pinWaits.sum(), pinTimeouts.sum(),
+            pinWaitLatency.counts(), pinned.get(), pinnedHighWater.get());
+   }
+
+   // AM: Clears the counters; the high-water mark restarts from what is pinned right now
+   void reset() {
+      for (LongAdder a : new LongAdder[] {hits, misses, prefetches, evictions, dirtyEvictions, cleanerWrites, pinWaits, pinTimeouts})
+         a.reset();
+      pinWaitLatency.reset();
+      pinnedHighWater.set(pinned.get());
+   }
+}
@@ -0,0 +1,62 @@
+package simpledb.buffer;
+
+import simpledb.file.LatencyHistogram;
+
+/**
+ * AM: An immutable copy of a BufferMgr's statistics, for the whole pool (BufferMgr.stats())
+ * or for the blocks of one file (BufferMgr.fileStats()).
+ * The pin wait array holds LatencyHistogram bucket counts; the percentile getters are upper bounds taken from it.
+ * The getters follow the JavaBeans pattern so BufferMgrMXBean can expose snapshots as open data.
+ */
+public class BufferStatsSnapshot {
+   private String name;
+   private long hits, misses, prefetches, evictions, dirtyEvictions, cleanerWrites, pinWaits, pinTimeouts;
+   private long[] pinWaitLatency;
+   private int pinned, pinnedHighWater;
+
+   public BufferStatsSnapshot(String name, long hits, long misses, long prefetches, long evictions,
+                              long dirtyEvictions, long cleanerWrites, long pinWaits, long pinTimeouts,
+                              long[] pinWaitLatency, int pinned, int pinnedHighWater) {
+      this.name = name;
+      this.hits = hits;
+      this.misses = misses;
+      this.prefetches = prefetches;
+      this.evictions = evictions;
+      this.dirtyEvictions = dirtyEvictions;
+      this.cleanerWrites = cleanerWrites;
+      this.pinWaits = pinWaits;
+      this.pinTimeouts = pinTimeouts;
+      this.pinWaitLatency = pinWaitLatency;
+      this.pinned = pinned;
+      this.pinnedHighWater = pinnedHighWater;
+   }
+
+   /** The file name, or "*" for the whole pool. */
+   public String getName()            { return name; }
+   public long getHits()              { return hits; }
+   public long getMisses()            { return misses; }
+   public long getPrefetches()        { return prefetches; }
+   public long getEvictions()         { return evictions; }
+   public long getDirtyEvictions()    { return dirtyEvictions; }
+   public long getCleanerWrites()     { return cleanerWrites; }
+   public long getPinWaits()          { return pinWaits; }
+   public long getPinTimeouts()       { return pinTimeouts; }
+   public long[] getPinWaitLatency()  { return pinWaitLatency.clone(); }
+   public int getPinned()             { return pinned; }
+   public int getPinnedHighWater()    { return pinnedHighWater; }
+
+   /** Hits as a fraction of all pins, or 0 if there were none. */
+   public double getHitRatio() {
+      long pins = hits + misses;
+      return (pins == 0) ? 0 : (double) hits / pins;
+   }
+
+   public long getPinWaitP50Nanos()   { return LatencyHistogram.percentile(pinWaitLatency, 50); }
+   public long getPinWaitP99Nanos()   { return LatencyHistogram.percentile(pinWaitLatency, 99); }
+
+   public String toString() {
+      return String.format("%s: hits=%d misses=%d (%.1f%% hits) prefetches=%d evictions=%d (%d dirty) cleanerWrites=%d pinWaits=%d (p50<%dns p99<%dns, %d timeouts) pinned=%d (high-water %d)",
+            name, hits, misses, 100 * getHitRatio(), prefetches, evictions, dirtyEvictions, cleanerWrites,
+            pinWaits, getPinWaitP50Nanos(), getPinWaitP99Nanos(), pinTimeouts, pinned, pinnedHighWater);
+   }
+}
@@ -0,0 +1,71 @@
+package simpledb.buffer;
+
+import java.lang.management.ManagementFactory;
+import javax.management.*;
+import javax.management.openmbean.*;
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+
+public class BufferStatsTest {
+   public static void main(String[] args) throws Exception {
+      SimpleDB db = new SimpleDB("bufferstatstest", 400, 8);
+      FileMgr fm = db.fileMgr();
+      BufferMgr bm = db.bufferMgr();
+      bm.stopBackgroundWriter();   // AM: So that every dirty page is written by an eviction
+      bm.setReadAhead(0);
+      Page p = new Page(fm.blockSize());
+      for (int i = 0; i < 10; i++)
+         fm.write(fm.append("statsfile"), p);
+      bm.resetStatistics();
+
+      // AM: 3 misses, then 2 hits
+      for (int i = 0; i < 3; i++)
+         bm.unpin(bm.pin(new BlockId("statsfile", i)));
+      for (int i = 0; i < 2; i++)
+         bm.unpin(bm.pin(new BlockId("statsfile", i)));
+      BufferStatsSnapshot s = bm.fileStats("statsfile");
+      System.out.println("hits " + s.getHits() + ", misses " + s.getMisses() + ", hit ratio " + s.getHitRatio());
+
+      // AM: 5 blocks pinned at once
+      Buffer[] buffs = new Buffer[5];
+      for (int i = 0; i < 5; i++)
+         buffs[i] = bm.pin(new BlockId("statsfile", i));
+      buffs[0].setModified(1, -1);
+      for (Buffer buff : buffs)
+         bm.unpin(buff);
+      System.out.println("pinned high-water: statsfile " + bm.fileStats("statsfile").getPinnedHighWater()
+            + ", whole pool " + bm.getStats().getPinnedHighWater());
+
+      // AM: Cycling through more blocks than fit replaces all of them, the modified one too
+      for (int round = 0; round < 3; round++)
+         for (int i = 0; i < 10; i++)
+            bm.unpin(bm.pin(new BlockId("statsfile", i)));
+      s = bm.fileStats("statsfile");
+      System.out.println("evictions " + (s.getEvictions() > 0) + ", dirty evictions " + s.getDirtyEvictions());
+
+      // AM: A pin that waits in vain
+      bm.setPinTimeout(100);
+      buffs = new Buffer[bm.available()];
+      for (int i = 0; i < buffs.length; i++)
+         buffs[i] = bm.pin(new BlockId("statsfile", i));
+      try {
+         bm.pin(new BlockId("statsfile", 9));
+      }
+      catch (BufferAbortException e) {
+         System.out.println("pin timed out");
+      }
+      for (Buffer buff : buffs)
+         bm.unpin(buff);
+      s = bm.getStats();
+      System.out.println("pin waits " + s.getPinWaits() + ", timeouts " + s.getPinTimeouts() + ", pinned now " + s.getPinned());
+      System.out.println(s);
+
+      // AM: The same numbers through JMX
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName("simpledb:type=BufferMgr,name=" + ObjectName.quote(new java.io.File("bufferstatstest").getPath()));
+      CompositeData stats = (CompositeData) server.getAttribute(name, "Stats");
+      TabularData table = (TabularData) server.getAttribute(name, "FileStats");
+      CompositeData file = (CompositeData) table.get(new Object[] {"statsfile"}).get("value");
+      System.out.println("JMX hits " + stats.get("hits") + ", statsfile misses " + file.get("misses"));
+   }
+}
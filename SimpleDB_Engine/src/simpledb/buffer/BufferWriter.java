@@ -0,0 +1,74 @@
+package simpledb.buffer;
+
+/**
+ * AM: The background writer ("page cleaner") of a BufferMgr.
+ * A daemon thread that wakes up every interval, and whenever a pin() had to write back a dirty
+ * victim itself, and asks BufferMgr to clean the buffers its ReplacementPolicy will replace next
+ * (BufferMgr.cleanAhead()). Foreground pins then find clean victims and never wait for a write.
+ * A failed write is left for the foreground: the buffer stays dirty and the next flush() of it reports the error.
+ */
+class BufferWriter implements Runnable {
+   private BufferMgr bm;
+   private long interval;
+   private volatile boolean running = true;
+   private boolean requested = false;        // AM: Guarded by this object
+   private Thread thread;
+
+   /**
+    * @param bm the buffer manager to clean
+    * @param intervalMillis the time between passes when nobody asks for one
+    */
+   BufferWriter(BufferMgr bm, long intervalMillis) {
+      this.bm = bm;
+      this.interval = intervalMillis;
+   }
+
+   void start() {
+      thread = new Thread(this, "simpledb-buffer-writer");
+      thread.setDaemon(true);                // AM: Never keeps the JVM alive; unwritten pages are just written later by someone else
+      thread.start();
+   }
+
+   /**
+    * Stops the thread and waits for the current pass to finish.
+    */
+   void stop() {
+      running = false;
+      wakeup();
+      try {
+         thread.join();
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+    * Asks for a pass right away.
+    */
+   synchronized void wakeup() {
+      requested = true;
+      notify();
+   }
+
+   public void run() {
+      while (running) {
+         try {
+            bm.cleanAhead();
+         }
+         catch (RuntimeException e) {
+            // AM: See the class comment
+         }
+         synchronized (this) {
+            try {
+               if (!requested && running)
+                  wait(interval);
+            }
+            catch (InterruptedException e) {
+               return;
+            }
+            requested = false;
+         }
+      }
+   }
+}
@@ -0,0 +1,81 @@
+package simpledb.buffer;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntPredicate;
+import simpledb.file.BlockId;
+
+/**
+ * AM: The clock (second chance) algorithm with reference bits.
+ * Every hit sets the frame's reference bit. The hand sweeps the pool in a circle; a frame whose
+ * bit is set gets it cleared and is skipped ("second chance"), so only frames that have not been
+ * referenced since the hand last passed them are replaced.
+ * The bits are an AtomicIntegerArray and the hand an AtomicInteger, so hits take no lock.
+ * The array only ever grows; after a shrink the hand just sweeps its first numbuffs bits.
+ */
+class ClockPolicy implements ReplacementPolicy {
+   private volatile int numbuffs;
+   private volatile AtomicIntegerArray refbits;
+   private AtomicInteger hand = new AtomicInteger(0);
+
+   ClockPolicy(int numbuffs) {
+      this.numbuffs = numbuffs;
+      refbits = new AtomicIntegerArray(numbuffs);
+   }
+
+   public void pinned(int frame) {
+      if (refbits.get(frame) == 0)      // AM: Read first, so hot frames don't keep writing the same cache line
+         refbits.set(frame, 1);
+   }
+
+   public int victim(BlockId blk, IntPredicate tryClaim) {
+      // AM: Two full turns clear every bit; the third finds any frame that is unpinned
+      int n = numbuffs;
+      AtomicIntegerArray bits = refbits;
+      for (int i = 0; i < 3 * n; i++) {
+         int frame = Math.floorMod(hand.getAndIncrement(), n);
+         if (bits.get(frame) == 1)
+            bits.set(frame, 0);
+         else if (tryClaim.test(frame))
+            return frame;
+      }
+      return -1;
+   }
+
+   public int[] nextVictims(int n) {
+      // AM: The frames the hand will reach next whose bit is already clear, i.e. the ones it would take on this turn
+      int size = numbuffs;
+      AtomicIntegerArray bits = refbits;
+      int[] frames = new int[Math.min(n, size)];
+      int count = 0;
+      int start = hand.get();
+      for (int i = 0; i < size && count < frames.length; i++) {
+         int frame = Math.floorMod(start + i, size);
+         if (bits.get(frame) == 0)
+            frames[count++] = frame;
+      }
+      return Arrays.copyOf(frames, count);
+   }
+
+   public void loaded(int frame, BlockId blk, boolean prefetched) {
+      refbits.set(frame, 1);            // AM: Prefetched too: otherwise a hand sweeping a pool of referenced frames takes it before its first pin
+   }
+
+   public void emptied(int frame) {
+      refbits.set(frame, 0);
+   }
+
+   public synchronized void resize(int n) {
+      AtomicIntegerArray bits = refbits;
+      if (n > bits.length()) {
+         AtomicIntegerArray bigger = new AtomicIntegerArray(n);
+         for (int f = 0; f < bits.length(); f++)
+            bigger.set(f, bits.get(f));   // AM: A hit setting a bit in the old array meanwhile is lost, which only costs it its second chance
+         refbits = bigger;
+      }
+      for (int f = numbuffs; f < n; f++)
+         refbits.set(f, 0);               // AM: Frames coming back after a shrink start unreferenced
+      numbuffs = n;
+   }
+}
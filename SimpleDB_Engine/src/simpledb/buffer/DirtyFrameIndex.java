@@ -0,0 +1,46 @@
+package simpledb.buffer;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * AM: For each transaction, the buffers it has modified that are not written back yet.
+ * Maintained by Buffer itself: setModified() adds the buffer under its transaction the first
+ * time the transaction dirties it, and flush() removes it again. BufferMgr.flushAll() then
+ * visits only the pages the transaction actually modified, not the whole pool.
+ * A transaction's set is a plain HashSet that is only touched inside ConcurrentHashMap.compute(),
+ * so updates for one transaction are serialized while different transactions don't contend.
+ */
+class DirtyFrameIndex {
+   private Map<Integer, Set<Buffer>> byTx = new ConcurrentHashMap<>();
+
+   void add(int txnum, Buffer buff) {
+      byTx.compute(txnum, (tx, buffs) -> {
+         if (buffs == null)
+            buffs = new HashSet<>();
+         buffs.add(buff);
+         return buffs;
+      });
+   }
+
+   void remove(int txnum, Buffer buff) {
+      byTx.computeIfPresent(txnum, (tx, buffs) -> {
+         buffs.remove(buff);
+         return buffs.isEmpty() ? null : buffs;   // AM: Drop finished transactions, so the map stays small
+      });
+   }
+
+   /**
+    * Removes and returns the transaction's dirty buffers.
+    * Buffers it dirties afterwards start a new set.
+    */
+   Collection<Buffer> take(int txnum) {
+      Set<Buffer> buffs = byTx.remove(txnum);
+      return (buffs == null) ? Collections.emptySet() : buffs;
+   }
+
+   // AM: Number of transactions that have unwritten changes
+   int transactions() {
+      return byTx.size();
+   }
+}
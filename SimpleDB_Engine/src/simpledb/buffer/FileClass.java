@@ -0,0 +1,30 @@
+package simpledb.buffer;
+
+import java.util.Set;
+import simpledb.file.FileType;
+
+/**
+ * AM: Classifies a file by the buffer pool its blocks are cached in (see BufferPools).
+ *    temp*                                   -> TEMP    (sort runs, materialized results)
+ *    tblcat, fldcat, viewcat, idxcat (.tbl)  -> CATALOG
+ *    other data files not ending in .tbl     -> INDEX   (B-tree "leaf" and "dir" files)
+ *    everything else                         -> TABLE   (tables, hash index buckets)
+ * Hash index buckets are ordinary TableScan files (idxname + bucket + ".tbl"),
+ * so their names can't be told apart from a table's.
+ */
+public enum FileClass {
+   TABLE, INDEX, CATALOG, TEMP;
+
+   private static final Set<String> CATALOG_FILES = Set.of("tblcat.tbl", "fldcat.tbl", "viewcat.tbl", "idxcat.tbl");
+
+   public static FileClass of(String filename) {
+      switch (FileType.of(filename)) {
+         case TEMP: return TEMP;
+         case LOG:  return TABLE;
+         default:
+            if (CATALOG_FILES.contains(filename))
+               return CATALOG;
+            return filename.endsWith(".tbl") ? TABLE : INDEX;
+      }
+   }
+}
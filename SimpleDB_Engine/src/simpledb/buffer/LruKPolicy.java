@@ -0,0 +1,136 @@
+package simpledb.buffer;
+
+import java.util.*;
+import java.util.function.IntPredicate;
+import simpledb.file.BlockId;
+
+/**
+ * AM: LRU-K (O'Neil, O'Neil & Weikum).
+ * Each frame remembers the times of its block's last K references. The victim is the frame with
+ * the largest backward K-distance, i.e. whose K-th most recent reference is the oldest; frames
+ * referenced fewer than K times count as infinitely distant and go first (least recently used first).
+ * A block that is only touched once by a scan therefore never pushes out a block that keeps being
+ * referenced, like an index root.
+ * The history of evicted blocks is retained for a while (up to numbuffs blocks), so a block that
+ * comes back soon after being evicted keeps its earlier references.
+ * The per-frame arrays only ever grow; after a shrink, frames from numbuffs up are simply not looked at.
+ */
+class LruKPolicy implements ReplacementPolicy {
+   private int k;
+   private int numbuffs;
+   private long[][] history;          // AM: history[frame][0] = most recent reference time; 0 = none
+   private boolean[] empty;
+   private BlockId[] blocks;
+   private long[] loadedAt;           // AM: Time a prefetched, not yet referenced block was loaded
+   private long now = 0;              // AM: Logical clock, one tick per reference
+   private LinkedHashMap<BlockId,long[]> retained;
+
+   LruKPolicy(int numbuffs, int k) {
+      this.k = k;
+      this.numbuffs = numbuffs;
+      history = new long[numbuffs][k];
+      empty = new boolean[numbuffs];
+      Arrays.fill(empty, true);
+      blocks = new BlockId[numbuffs];
+      loadedAt = new long[numbuffs];
+      retained = new LinkedHashMap<>(16, 0.75f, false) {
+         protected boolean removeEldestEntry(Map.Entry<BlockId,long[]> eldest) {
+            return size() > LruKPolicy.this.numbuffs;
+         }
+      };
+   }
+
+   public synchronized void pinned(int frame) {
+      reference(frame);
+   }
+
+   public synchronized int victim(BlockId blk, IntPredicate tryClaim) {
+      // AM: One linear scan for the best frame; only if it is pinned is the scan repeated without it
+      boolean[] tried = new boolean[numbuffs];
+      while (true) {
+         int best = -1;
+         for (int f = 0; f < numbuffs; f++)
+            if (!tried[f] && (best < 0 || before(f, best)))
+               best = f;
+         if (best < 0)
+            return -1;
+         if (tryClaim.test(best)) {
+            if (!empty[best])
+               retained.put(blocks[best], history[best].clone());
+            emptied(best);
+            return best;
+         }
+         tried[best] = true;
+      }
+   }
+
+   public synchronized int[] nextVictims(int n) {
+      Integer[] frames = new Integer[numbuffs];
+      for (int f = 0; f < frames.length; f++)
+         frames[f] = f;
+      Arrays.sort(frames, (f, g) -> before(f, g) ? -1 : (before(g, f) ? 1 : 0));
+      return ReplacementPolicy.firstOf(n, Arrays.asList(frames));
+   }
+
+   public synchronized void loaded(int frame, BlockId blk, boolean prefetched) {
+      if (frame >= numbuffs)
+         return;
+      empty[frame] = false;
+      blocks[frame] = blk;
+      long[] old = retained.remove(blk);
+      if (old != null)
+         history[frame] = old;
+      if (!prefetched)
+         reference(frame);
+      else
+         loadedAt[frame] = ++now;         // AM: Not a reference, but it orders the block after older unreferenced ones
+   }
+
+   public synchronized void emptied(int frame) {
+      empty[frame] = true;
+      blocks[frame] = null;
+      loadedAt[frame] = 0;
+      Arrays.fill(history[frame], 0);
+   }
+
+   public synchronized void resize(int n) {
+      if (n > history.length) {
+         int old = history.length;
+         history = Arrays.copyOf(history, n);
+         for (int f = old; f < n; f++)
+            history[f] = new long[k];
+         empty = Arrays.copyOf(empty, n);
+         blocks = Arrays.copyOf(blocks, n);
+         loadedAt = Arrays.copyOf(loadedAt, n);
+      }
+      for (int f = numbuffs; f < n; f++)
+         emptied(f);
+      numbuffs = n;
+   }
+
+   // AM: True if frame f should be replaced before frame g
+   private boolean before(int f, int g) {
+      int gf = group(f), gg = group(g);
+      if (gf != gg)
+         return gf < gg;
+      return key(f) < key(g);
+   }
+
+   // AM: 0 = empty, 1 = fewer than K references (infinite K-distance), 2 = the rest
+   private int group(int f) {
+      return empty[f] ? 0 : (history[f][k-1] == 0 ? 1 : 2);
+   }
+
+   // AM: Within group 1 the least recently used goes first; within group 2 the oldest K-th reference
+   private long key(int f) {
+      if (history[f][k-1] != 0)
+         return history[f][k-1];
+      return (history[f][0] != 0) ? history[f][0] : loadedAt[f];
+   }
+
+   private void reference(int frame) {
+      long[] h = history[frame];
+      System.arraycopy(h, 0, h, 1, k - 1);
+      h[0] = ++now;
+   }
+}
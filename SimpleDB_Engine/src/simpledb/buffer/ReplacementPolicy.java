@@ -0,0 +1,96 @@
+package simpledb.buffer;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.IntPredicate;
+import simpledb.file.BlockId;
+
+/**
+ * AM: Decides which buffer BufferMgr replaces when it needs a frame for a new block.
+ * Frames are identified by their index in the buffer pool (0 .. numbuffs-1).
+ * BufferMgr reports what happens to the frames, and asks for a victim on every miss:
+ *    pinned()  -> a resident block was pinned (a hit)
+ *    victim()  -> a block is about to be loaded; pick a frame and claim it
+ *    loaded()  -> the claimed frame now holds the new block
+ *    emptied() -> the claimed frame ended up holding no block (e.g. another thread loaded the block first)
+ * nextVictims() lets the background writer (BufferWriter) look ahead without claiming anything.
+ * resize() follows BufferMgr.resize(): frames at or above the new size are no longer proposed, and
+ * reports about them (e.g. from a hit that raced with the shrink) are ignored.
+ * victim() proposes frames in its order of preference and passes each one to tryClaim, which
+ * returns false for frames that are pinned (or claimed by another thread); the first frame it
+ * accepts is the victim. All methods may be called concurrently.
+ */
+public interface ReplacementPolicy {
+   /**
+    * Records a hit on a resident frame.
+    * @param frame the frame that was pinned
+    */
+   void pinned(int frame);
+
+   /**
+    * Chooses and claims the frame to load blk into.
+    * @param blk the block that is about to be loaded
+    * @param tryClaim claims a frame, or returns false if it can't be replaced right now
+    * @return the claimed frame, or -1 if no frame could be claimed
+    */
+   int victim(BlockId blk, IntPredicate tryClaim);
+
+   /**
+    * Records that a frame returned by victim() now holds blk.
+    * @param frame the frame
+    * @param blk the block loaded into it
+    * @param prefetched true if the block was read ahead and has not been pinned yet;
+    *                   its first pin is then counted as its first reference
+    */
+   void loaded(int frame, BlockId blk, boolean prefetched);
+
+   /**
+    * Records that a frame returned by victim() holds no block.
+    * @param frame the frame
+    */
+   void emptied(int frame);
+
+   /**
+    * Lists the frames that victim() would propose first, in that order, without
+    * claiming them or changing the policy's state. Pinned frames may be included.
+    * @param n the maximum number of frames to list
+    * @return up to n frames
+    */
+   int[] nextVictims(int n);
+
+   /**
+    * Changes the number of frames in the pool. Frames that are added hold no block;
+    * frames that are removed are forgotten. A victim() call already in progress
+    * may still propose a removed frame, so tryClaim must refuse those.
+    * @param numbuffs the new number of frames
+    */
+   void resize(int numbuffs);
+
+   /**
+    * Helper for implementations: claims the first frame of the collection (in iteration order)
+    * that tryClaim accepts.
+    * @return the claimed frame, or -1
+    */
+   static int claimFirst(Collection<Integer> frames, IntPredicate tryClaim) {
+      for (int frame : frames)
+         if (tryClaim.test(frame))
+            return frame;
+      return -1;
+   }
+
+   /**
+    * Helper for implementations: the first n frames of the collections, in order.
+    */
+   @SafeVarargs
+   static int[] firstOf(int n, Collection<Integer>... lists) {
+      int[] frames = new int[n];
+      int count = 0;
+      for (Collection<Integer> list : lists)
+         for (int frame : list) {
+            if (count == n)
+               return frames;
+            frames[count++] = frame;
+         }
+      return Arrays.copyOf(frames, count);
+   }
+}
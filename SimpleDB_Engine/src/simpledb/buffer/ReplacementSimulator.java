@@ -0,0 +1,96 @@
+package simpledb.buffer;
+
+import java.io.*;
+import java.util.*;
+import simpledb.file.BlockId;
+
+/**
+ * AM: Replays a sequence of pins against every ReplacementStrategy and reports the hit ratios.
+ * The policies are driven exactly as BufferMgr drives them (pinned / victim / loaded), but no
+ * pages are read, and a buffer is assumed to be unpinned again before the next pin.
+ * * TRACES:
+ * - A trace file has one "filename blocknumber" line per pin; BufferMgr.setTrace() records one
+ * from a running database.
+ * - Without a trace file a synthetic workload is used: random B-tree lookups (a hot directory
+ * and leaf set) interleaved with repeated full scans of a table much larger than the pool,
+ * which is exactly the case where plain clock/LRU lose the hot pages.
+ * Usage: java simpledb.buffer.ReplacementSimulator [tracefile|-] [poolsize...]
+ */
+public class ReplacementSimulator {
+   public static void main(String[] args) throws IOException {
+      List<BlockId> trace = (args.length > 0 && !args[0].equals("-")) ? readTrace(args[0]) : syntheticTrace();
+      int[] sizes = {16, 64, 256};
+      if (args.length > 1) {
+         sizes = new int[args.length - 1];
+         for (int i=1; i<args.length; i++)
+            sizes[i-1] = Integer.parseInt(args[i]);
+      }
+
+      System.out.println(trace.size() + " pins");
+      System.out.printf("%-8s", "buffers");
+      for (ReplacementStrategy s : ReplacementStrategy.values())
+         System.out.printf("%10s", s);
+      System.out.println();
+      for (int size : sizes) {
+         System.out.printf("%-8d", size);
+         for (ReplacementStrategy s : ReplacementStrategy.values())
+            System.out.printf("%9.2f%%", 100.0 * simulate(s.create(size), size, trace) / trace.size());
+         System.out.println();
+      }
+   }
+
+   /**
+    * Replays the trace and returns the number of hits.
+    */
+   public static long simulate(ReplacementPolicy policy, int numbuffs, List<BlockId> trace) {
+      BlockId[] frames = new BlockId[numbuffs];
+      Map<BlockId,Integer> resident = new HashMap<>();
+      long hits = 0;
+      for (BlockId blk : trace) {
+         Integer frame = resident.get(blk);
+         if (frame != null) {
+            hits++;
+            policy.pinned(frame);
+            continue;
+         }
+         int victim = policy.victim(blk, f -> true);   // AM: Nothing stays pinned in the simulation
+         if (frames[victim] != null)
+            resident.remove(frames[victim]);
+         frames[victim] = blk;
+         resident.put(blk, victim);
+         policy.loaded(victim, blk, false);
+      }
+      return hits;
+   }
+
+   private static List<BlockId> readTrace(String filename) throws IOException {
+      List<BlockId> trace = new ArrayList<>();
+      try (BufferedReader in = new BufferedReader(new FileReader(filename))) {
+         String line;
+         while ((line = in.readLine()) != null) {
+            int sp = line.lastIndexOf(' ');
+            if (sp > 0)
+               trace.add(new BlockId(line.substring(0, sp), Integer.parseInt(line.substring(sp + 1).trim())));
+         }
+      }
+      return trace;
+   }
+
+   // AM: 20 rounds of 2000 index lookups (root, one of 8 directory pages, one of 120 skewed leaves, a data page) followed by a 2000-block scan
+   private static List<BlockId> syntheticTrace() {
+      Random rand = new Random(42);
+      List<BlockId> trace = new ArrayList<>();
+      for (int round=0; round<20; round++) {
+         for (int i=0; i<2000; i++) {
+            trace.add(new BlockId("idxdir", 0));
+            trace.add(new BlockId("idxdir", 1 + rand.nextInt(8)));
+            int leaf = (int) (120 * Math.pow(rand.nextDouble(), 3));   // AM: Skewed towards the low leaves
+            trace.add(new BlockId("idxleaf", leaf));
+            trace.add(new BlockId("data.tbl", rand.nextInt(2000)));
+         }
+         for (int b=0; b<2000; b++)
+            trace.add(new BlockId("data.tbl", b));
+      }
+      return trace;
+   }
+}
@@ -0,0 +1,26 @@
+package simpledb.buffer;
+
+/**
+ * AM: The replacement policies BufferMgr can be started with.
+ *    CLOCK -> second-chance clock with reference bits; hits are lock-free
+ *    LRU_K -> evicts the frame whose K-th most recent reference is oldest (K = 2)
+ *    TWO_Q -> new blocks go through a FIFO; only blocks referenced again after leaving it become "hot"
+ *    ARC   -> adaptive replacement cache: balances recency and frequency using ghost lists
+ * LRU_K, TWO_Q and ARC keep ordered lists, so their bookkeeping on every hit takes the policy's lock.
+ * CLOCK is the default because it keeps pinning of resident blocks free of any shared lock.
+ */
+public enum ReplacementStrategy {
+   CLOCK, LRU_K, TWO_Q, ARC;
+
+   /**
+    * Creates a policy of this kind for a pool of numbuffs frames.
+    */
+   public ReplacementPolicy create(int numbuffs) {
+      switch (this) {
+         case LRU_K: return new LruKPolicy(numbuffs, 2);
+         case TWO_Q: return new TwoQPolicy(numbuffs);
+         case ARC:   return new ArcPolicy(numbuffs);
+         default:    return new ClockPolicy(numbuffs);
+      }
+   }
+}
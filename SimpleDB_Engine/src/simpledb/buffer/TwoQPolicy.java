@@ -0,0 +1,91 @@
+package simpledb.buffer;
+
+import java.util.*;
+import java.util.function.IntPredicate;
+import simpledb.file.BlockId;
+
+/**
+ * AM: The "full" 2Q algorithm (Johnson & Shasha).
+ *    A1in  -> FIFO of frames holding blocks seen once (at most KIN of the pool)
+ *    A1out -> ghost FIFO of blocks recently pushed out of A1in (block ids only, KOUT of them)
+ *    Am    -> LRU of frames holding blocks referenced again after reaching A1out
+ * A block loaded for the first time goes to A1in; hits while it is there don't promote it, so a
+ * scan that touches each block a few times in a row never reaches Am. Only a block that comes back
+ * after falling out of A1in is considered hot.
+ */
+class TwoQPolicy implements ReplacementPolicy {
+   private int numbuffs, kin, kout;
+   private LinkedHashSet<Integer> free = new LinkedHashSet<>();
+   private LinkedHashSet<Integer> a1in = new LinkedHashSet<>();   // AM: Oldest first
+   private LinkedHashSet<Integer> am = new LinkedHashSet<>();     // AM: Least recently used first
+   private LinkedHashSet<BlockId> a1out = new LinkedHashSet<>();
+   private BlockId[] blocks;
+
+   TwoQPolicy(int numbuffs) {
+      blocks = new BlockId[0];
+      resize(numbuffs);
+   }
+
+   public synchronized void pinned(int frame) {
+      if (am.remove(frame))
+         am.add(frame);                 // AM: Move to the MRU end; A1in is a FIFO and stays as it is
+   }
+
+   public synchronized int victim(BlockId blk, IntPredicate tryClaim) {
+      boolean fromA1in = a1in.size() > kin;
+      int frame = ReplacementPolicy.claimFirst(free, tryClaim);
+      if (frame < 0)
+         frame = ReplacementPolicy.claimFirst(fromA1in ? a1in : am, tryClaim);
+      if (frame < 0)
+         frame = ReplacementPolicy.claimFirst(fromA1in ? am : a1in, tryClaim);
+      if (frame < 0)
+         return -1;
+      if (a1in.remove(frame)) {
+         a1out.add(blocks[frame]);
+         if (a1out.size() > kout)
+            a1out.remove(a1out.iterator().next());
+      }
+      am.remove(frame);
+      free.remove(frame);
+      blocks[frame] = null;
+      return frame;
+   }
+
+   public synchronized int[] nextVictims(int n) {
+      boolean fromA1in = a1in.size() > kin;
+      return ReplacementPolicy.firstOf(n, fromA1in ? a1in : am, fromA1in ? am : a1in);
+   }
+
+   public synchronized void loaded(int frame, BlockId blk, boolean prefetched) {
+      if (frame >= numbuffs)
+         return;
+      blocks[frame] = blk;
+      if (a1out.remove(blk))
+         am.add(frame);
+      else
+         a1in.add(frame);
+   }
+
+   public synchronized void emptied(int frame) {
+      if (frame < numbuffs)
+         free.add(frame);
+   }
+
+   public synchronized void resize(int n) {
+      if (n > blocks.length)
+         blocks = Arrays.copyOf(blocks, n);
+      for (int f = n; f < numbuffs; f++) {
+         free.remove(f);
+         a1in.remove(f);
+         am.remove(f);
+         blocks[f] = null;
+      }
+      for (int f = numbuffs; f < n; f++)
+         free.add(f);
+      numbuffs = n;
+      kin = Math.max(1, n / 4);
+      kout = Math.max(1, n / 2);
+      while (a1out.size() > kout)
+         a1out.remove(a1out.iterator().next());
+   }
+}
@@ -0,0 +1,84 @@
+package simpledb.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * AM: One open database file, as seen by FileMgr.
+ * FileMgr does the Block -> byte position translation and the bookkeeping;
+ * a BlockFile only moves bytes between a ByteBuffer and a position in the file.
+ * This is the seam that lets FileMgr serve different files from different storage
+ * backends (see FileBackend) without the layers above noticing.
+ * Implementations must allow read() and write() to be called concurrently.
+ */
+interface BlockFile {
+   /**
+    * Fills the remaining bytes of dst from the file, starting at pos.
+    * Bytes past the end of the file are left untouched.
+    */
+   void read(long pos, ByteBuffer dst) throws IOException;
+
+   /**
+    * Writes the remaining bytes of src to the file, starting at pos.
+    */
+   void write(long pos, ByteBuffer src) throws IOException;
+
+   /**
+    * Fills the buffers one after the other with consecutive bytes of the file, starting at pos
+    * (a "scatter" read). By default this is one read() per buffer.
+    */
+   default void read(long pos, ByteBuffer[] dsts) throws IOException {
+      for (ByteBuffer dst : dsts) {
+         int n = dst.remaining();
+         read(pos, dst);
+         pos += n;
+      }
+   }
+
+   /**
+    * Starts filling dst from the file at pos and returns at once.
+    * The future completes when dst is full (or the end of the file is reached).
+    * By default the read is done synchronously and an already-completed future is returned.
+    */
+   default CompletableFuture<Void> readAsync(long pos, ByteBuffer dst) {
+      try {
+         read(pos, dst);
+         return CompletableFuture.completedFuture(null);
+      }
+      catch (IOException e) {
+         return CompletableFuture.failedFuture(e);
+      }
+   }
+
+   /**
+    * Starts writing src to the file at pos and returns at once.
+    * The future completes when all of src has been written.
+    */
+   default CompletableFuture<Void> writeAsync(long pos, ByteBuffer src) {
+      try {
+         write(pos, src);
+         return CompletableFuture.completedFuture(null);
+      }
+      catch (IOException e) {
+         return CompletableFuture.failedFuture(e);
+      }
+   }
+
+   /**
+    * Returns the length of the file in bytes.
+    */
+   long size() throws IOException;
+
+   /**
+    * Grows or shrinks the file to the specified length.
+    */
+   void setSize(long newsize) throws IOException;
+
+   /**
+    * Forces all writes made so far onto the disk.
+    */
+   void force() throws IOException;
+
+   void close() throws IOException;
+}
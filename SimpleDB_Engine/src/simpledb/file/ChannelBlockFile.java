@@ -0,0 +1,151 @@
+package simpledb.file;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * AM: The default BlockFile, backed by a RandomAccessFile.
+ * Every read and write is a positional FileChannel call, so concurrent
+ * readers never share (or move) a file cursor.
+ * readAsync() and writeAsync() go through an AsynchronousFileChannel on the same file,
+ * opened the first time one of them is used.
+ */
+class ChannelBlockFile implements BlockFile {
+   private File file;
+   private boolean sync;
+   private RandomAccessFile raf;
+   private FileChannel fc;
+   private volatile AsynchronousFileChannel afc;
+
+   /**
+    * @param file the disk file
+    * @param mode "rws" for synchronous writes, "rw" to write through the OS cache
+    */
+   ChannelBlockFile(File file, String mode) throws IOException {
+      this.file = file;
+      this.sync = mode.equals("rws");
+      raf = new RandomAccessFile(file, mode);
+      fc = raf.getChannel();
+   }
+
+   public void read(long pos, ByteBuffer dst) throws IOException {
+      long start = pos - dst.position();
+      while (dst.hasRemaining()) {
+         int n = fc.read(dst, start + dst.position());
+         if (n < 0)
+            break;      // AM: Reading past end of file; the rest of dst is left as-is
+      }
+   }
+
+   /**
+    * AM: One scatter read (a single readv syscall) for all the buffers.
+    * FileChannel has no positional scatter read, so this is the one place that uses the
+    * channel's file cursor; it is serialized on the file, and positional reads and writes
+    * running at the same time are unaffected because they never look at the cursor.
+    */
+   public synchronized void read(long pos, ByteBuffer[] dsts) throws IOException {
+      fc.position(pos);
+      ByteBuffer last = dsts[dsts.length - 1];
+      while (last.hasRemaining()) {
+         if (fc.read(dsts) < 0)
+            break;      // AM: Reading past end of file; the remaining buffers are left as-is
+      }
+   }
+
+   public void write(long pos, ByteBuffer src) throws IOException {
+      long start = pos - src.position();
+      while (src.hasRemaining())
+         fc.write(src, start + src.position());
+   }
+
+   public CompletableFuture<Void> readAsync(long pos, ByteBuffer dst) {
+      return new Transfer(pos, dst, true).start();
+   }
+
+   public CompletableFuture<Void> writeAsync(long pos, ByteBuffer src) {
+      return new Transfer(pos, src, false).start();
+   }
+
+   public long size() throws IOException {
+      return raf.length();
+   }
+
+   public void setSize(long newsize) throws IOException {
+      raf.setLength(newsize);
+   }
+
+   public void force() throws IOException {
+      fc.force(true);   // AM: true = also force the file length, which append() and truncate() change
+   }
+
+   public void close() throws IOException {
+      if (afc != null)
+         afc.close();
+      raf.close();
+   }
+
+   private AsynchronousFileChannel asyncChannel() throws IOException {
+      if (afc == null) {
+         synchronized (this) {
+            if (afc == null) {
+               if (sync)   // AM: Same guarantee as "rws": each write completes only once it is on disk
+                  afc = AsynchronousFileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.SYNC);
+               else
+                  afc = AsynchronousFileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+         }
+      }
+      return afc;
+   }
+
+   /**
+    * AM: One asynchronous read or write of a whole buffer.
+    * The channel may transfer fewer bytes than asked for, so the
+    * completion handler keeps re-issuing the rest until the buffer is done.
+    */
+   private class Transfer implements CompletionHandler<Integer, Void> {
+      private long start;
+      private ByteBuffer bb;
+      private boolean isRead;
+      private CompletableFuture<Void> done = new CompletableFuture<>();
+
+      Transfer(long pos, ByteBuffer bb, boolean isRead) {
+         this.start = pos - bb.position();
+         this.bb = bb;
+         this.isRead = isRead;
+      }
+
+      CompletableFuture<Void> start() {
+         try {
+            issue(asyncChannel());
+         }
+         catch (IOException e) {
+            done.completeExceptionally(e);
+         }
+         return done;
+      }
+
+      public void completed(Integer n, Void attachment) {
+         if (n < 0 || !bb.hasRemaining())   // AM: End of file (reads only) or the whole buffer was transferred
+            done.complete(null);
+         else
+            issue(afc);
+      }
+
+      public void failed(Throwable exc, Void attachment) {
+         done.completeExceptionally(exc);
+      }
+
+      private void issue(AsynchronousFileChannel channel) {
+         if (isRead)
+            channel.read(bb, start + bb.position(), null, this);
+         else
+            channel.write(bb, start + bb.position(), null, this);
+      }
+   }
+}
@@ -0,0 +1,327 @@
+package simpledb.file;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * AM: A BlockFile that stores every block compressed with LZCodec.
+ * * LAYOUT:
+ * - The data file holds one extent per block: a 4-byte stored length followed by the
+ * compressed bytes. If a block does not compress, it is stored raw (stored length = blocksize).
+ * - A sidecar block map (<file>.cmap) has one MAP_ENTRY_BYTES entry per block: the extent's
+ * offset in the data file and its capacity. An all-zero entry means "all-zero block" and takes
+ * no space in the data file, so preallocating blocks (FileMgr extents) only grows the map.
+ * - The logical size of the file is (number of map entries) * blocksize.
+ * * UPDATES:
+ * - A block that still fits in its extent is overwritten in place. Otherwise it is written to a
+ * new extent first and the map entry is switched afterwards, so a crash in between leaves the
+ * old, intact version. Extents are rounded up to EXTENT_UNIT bytes to leave room to grow.
+ * - Freed extents go on a free list (split when much larger than needed), but only after the next
+ * force(): until the new map entry is on disk, the old extent is still what a crash would recover.
+ * On open, the gaps between live extents are put back on the free list.
+ * - Shrinking the file frees the extents of the dropped blocks the same way. The data file itself is
+ * trimmed in force(), once the free space at its end is no longer referenced by the map on disk.
+ * * LIMITS:
+ * - Positions and lengths must be whole blocks, which is all FileMgr ever asks for.
+ * - Reads and writes of different blocks run concurrently; the block map is guarded by this object's lock.
+ */
+class CompressedBlockFile implements BlockFile {
+   private static final int MAP_ENTRY_BYTES = 16;   // AM: offset (long) + capacity (int) + unused (int)
+   private static final int HEADER_BYTES = 4;       // AM: Stored length at the start of each extent
+   private static final int EXTENT_UNIT = 64;
+
+   private RandomAccessFile dataRaf, mapRaf;
+   private FileChannel data, map;
+   private int blocksize;
+   private boolean syncWrites;
+   private int nblocks;
+   private long[] offsets;
+   private int[] capacities;
+   private long dataEnd;
+   private TreeMap<Integer,Deque<Long>> freeExtents = new TreeMap<>();   // AM: capacity -> offsets of free extents
+   private List<long[]> pendingFree = new ArrayList<>();                 // AM: {offset, capacity} freed since the last force()
+   private ThreadLocal<byte[][]> scratch;
+
+   /**
+    * @param file the data file; the block map is stored next to it
+    * @param blocksize the block size
+    * @param syncWrites force each write to disk before returning (Durability.SYNC_WRITES)
+    */
+   CompressedBlockFile(File file, int blocksize, boolean syncWrites) throws IOException {
+      this.blocksize = blocksize;
+      this.syncWrites = syncWrites;
+      dataRaf = new RandomAccessFile(file, "rw");
+      mapRaf = new RandomAccessFile(new File(file.getPath() + ".cmap"), "rw");
+      data = dataRaf.getChannel();
+      map = mapRaf.getChannel();
+      // AM: Per-thread work arrays: the uncompressed page, the stored extent, and the compressor's output
+      scratch = ThreadLocal.withInitial(() -> new byte[][] {new byte[blocksize], new byte[HEADER_BYTES + blocksize], new byte[blocksize - 1]});
+      loadMap();
+   }
+
+   public void read(long pos, ByteBuffer dst) throws IOException {
+      int blknum = blockNumber(pos, dst.remaining());
+      byte[] page = scratch.get()[0];
+      byte[] stored = scratch.get()[1];
+      while (dst.hasRemaining()) {
+         long offset;
+         synchronized (this) {
+            if (blknum >= nblocks)
+               return;                                  // AM: Past the end of the file; the rest of dst is left as-is
+            offset = offsets[blknum];
+            if (capacities[blknum] == 0)
+               offset = -1;
+         }
+         if (offset < 0)
+            Arrays.fill(page, (byte) 0);
+         else {
+            ByteBuffer header = ByteBuffer.wrap(stored, 0, HEADER_BYTES);
+            readFully(header, offset);
+            int len = ByteBuffer.wrap(stored).getInt(0);
+            if (len <= 0 || len > blocksize)
+               throw new IOException("corrupt compressed block " + blknum);
+            readFully(ByteBuffer.wrap(stored, HEADER_BYTES, len), offset + HEADER_BYTES);
+            if (len == blocksize)
+               System.arraycopy(stored, HEADER_BYTES, page, 0, blocksize);   // AM: Stored raw
+            else
+               LZCodec.decompress(stored, HEADER_BYTES, len, page, blocksize);
+         }
+         dst.put(page, 0, blocksize);
+         blknum++;
+      }
+   }
+
+   public void write(long pos, ByteBuffer src) throws IOException {
+      int blknum = blockNumber(pos, src.remaining());
+      byte[] page = scratch.get()[0];
+      byte[] stored = scratch.get()[1];
+      while (src.hasRemaining()) {
+         src.get(page, 0, blocksize);
+         int len = isZero(page) ? 0 : compress(page, stored);
+         writeBlock(blknum, stored, len);
+         blknum++;
+      }
+      if (syncWrites)
+         force();
+   }
+
+   public synchronized long size() {
+      return (long) nblocks * blocksize;
+   }
+
+   public synchronized void setSize(long newsize) throws IOException {
+      int newblocks = (int) (newsize / blocksize);
+      if (newblocks > nblocks) {
+         ensureCapacity(newblocks);                     // AM: New entries are zero = all-zero blocks
+         nblocks = newblocks;
+         mapRaf.setLength((long) nblocks * MAP_ENTRY_BYTES);
+         return;
+      }
+      for (int blk = newblocks; blk < nblocks; blk++)
+         releaseExtent(blk);                            // AM: Still what a crash before the next force() would recover
+      nblocks = newblocks;
+      mapRaf.setLength((long) nblocks * MAP_ENTRY_BYTES);
+   }
+
+   public void force() throws IOException {
+      List<long[]> freed;
+      synchronized (this) {
+         freed = pendingFree;
+         pendingFree = new ArrayList<>();
+      }
+      data.force(true);                                  // AM: Data before map, so a forced map never points at unforced data
+      map.force(true);
+      synchronized (this) {
+         for (long[] x : freed)
+            addFree(x[0], (int) x[1]);                   // AM: No map entry on disk refers to these any more
+         if (!freed.isEmpty())
+            trimDataFile();
+      }
+   }
+
+   public void close() throws IOException {
+      dataRaf.close();
+      mapRaf.close();
+   }
+
+   // AM: Stores len bytes of stored (after its header) as the block's new contents; len 0 = all-zero block
+   private void writeBlock(int blknum, byte[] stored, int len) throws IOException {
+      int needed = (len == 0) ? 0 : HEADER_BYTES + len;
+      long offset;
+      synchronized (this) {
+         if (blknum >= nblocks) {
+            ensureCapacity(blknum + 1);
+            nblocks = blknum + 1;
+         }
+         if (needed == 0) {
+            releaseExtent(blknum);
+            writeMapEntry(blknum);
+            return;
+         }
+         if (capacities[blknum] >= needed)
+            offset = offsets[blknum];                   // AM: Fits in place
+         else
+            offset = -1;
+      }
+      ByteBuffer.wrap(stored).putInt(0, len);
+      if (offset >= 0) {
+         writeFully(ByteBuffer.wrap(stored, 0, needed), offset);
+         return;
+      }
+      int capacity = roundUp(needed);
+      long newoffset = allocate(capacity);
+      writeFully(ByteBuffer.wrap(stored, 0, needed), newoffset);   // AM: New extent first ...
+      synchronized (this) {
+         releaseExtent(blknum);
+         offsets[blknum] = newoffset;                   // AM: ... then switch the map entry
+         capacities[blknum] = capacity;
+         writeMapEntry(blknum);
+      }
+   }
+
+   // AM: Compresses page into stored (after the header); returns blocksize if it is stored raw
+   private int compress(byte[] page, byte[] stored) {
+      byte[] out = scratch.get()[2];                    // AM: blocksize - 1 bytes; anything that doesn't save at least a byte is stored raw
+      int len = LZCodec.compress(page, blocksize, out);
+      if (len < 0) {
+         System.arraycopy(page, 0, stored, HEADER_BYTES, blocksize);
+         return blocksize;
+      }
+      System.arraycopy(out, 0, stored, HEADER_BYTES, len);
+      return len;
+   }
+
+   private synchronized long allocate(int capacity) {
+      Map.Entry<Integer,Deque<Long>> e = freeExtents.ceilingEntry(capacity);
+      if (e == null) {
+         long offset = dataEnd;
+         dataEnd += capacity;
+         return offset;
+      }
+      long offset = e.getValue().poll();
+      if (e.getValue().isEmpty())
+         freeExtents.remove(e.getKey());
+      if (e.getKey() - capacity >= EXTENT_UNIT)
+         addFree(offset + capacity, e.getKey() - capacity);   // AM: Split off the unused tail
+      return offset;
+   }
+
+   // AM: Must be called while holding the lock
+   private void releaseExtent(int blknum) {
+      if (capacities[blknum] > 0)
+         pendingFree.add(new long[] {offsets[blknum], capacities[blknum]});
+      offsets[blknum] = 0;
+      capacities[blknum] = 0;
+   }
+
+   private void addFree(long offset, int capacity) {
+      freeExtents.computeIfAbsent(capacity, k -> new ArrayDeque<>()).add(offset);
+   }
+
+   /* AM: Gives the free extents at the end of the data file back to the file system. Must be called while holding the lock.
+    *     Only free-list space is cut, so neither a forced map entry nor an extent being written right now can lie past the new end.
+    */
+   private void trimDataFile() throws IOException {
+      Map<Long,long[]> byEnd = new HashMap<>();         // AM: end offset -> {offset, capacity}
+      for (Map.Entry<Integer,Deque<Long>> e : freeExtents.entrySet())
+         for (long offset : e.getValue())
+            byEnd.put(offset + e.getKey(), new long[] {offset, e.getKey()});
+      long end = dataEnd;
+      long[] x;
+      while ((x = byEnd.get(end)) != null) {
+         Deque<Long> q = freeExtents.get((int) x[1]);
+         q.remove(x[0]);
+         if (q.isEmpty())
+            freeExtents.remove((int) x[1]);
+         end = x[0];
+      }
+      if (end == dataEnd)
+         return;
+      dataEnd = end;
+      if (data.size() > dataEnd)
+         data.truncate(dataEnd);
+   }
+
+   private void writeMapEntry(int blknum) throws IOException {
+      ByteBuffer entry = ByteBuffer.allocate(MAP_ENTRY_BYTES);
+      entry.putLong(0, offsets[blknum]);
+      entry.putInt(8, capacities[blknum]);
+      while (entry.hasRemaining())
+         map.write(entry, (long) blknum * MAP_ENTRY_BYTES + entry.position());
+   }
+
+   private void loadMap() throws IOException {
+      nblocks = (int) (map.size() / MAP_ENTRY_BYTES);
+      offsets = new long[Math.max(16, nblocks)];
+      capacities = new int[offsets.length];
+      ByteBuffer entries = ByteBuffer.allocate(nblocks * MAP_ENTRY_BYTES);
+      while (entries.hasRemaining())
+         if (map.read(entries, entries.position()) < 0)
+            break;
+      for (int blk = 0; blk < nblocks; blk++) {
+         offsets[blk] = entries.getLong(blk * MAP_ENTRY_BYTES);
+         capacities[blk] = entries.getInt(blk * MAP_ENTRY_BYTES + 8);
+      }
+      rebuildFreeExtents();
+   }
+
+   /* AM: Recomputes the free space from the gaps between live extents and trims the data file after the last one.
+    *     Only safe when the map on disk matches memory, i.e. right after opening the file.
+    */
+   private void rebuildFreeExtents() throws IOException {
+      List<long[]> live = new ArrayList<>();
+      for (int blk = 0; blk < nblocks; blk++)
+         if (capacities[blk] > 0)
+            live.add(new long[] {offsets[blk], capacities[blk]});
+      live.sort(Comparator.comparingLong(x -> x[0]));
+      long end = 0;
+      for (long[] x : live) {
+         if (x[0] > end)
+            addFree(end, (int) (x[0] - end));
+         end = Math.max(end, x[0] + x[1]);
+      }
+      dataEnd = end;
+      if (data.size() > dataEnd)
+         data.truncate(dataEnd);
+   }
+
+   private void ensureCapacity(int n) {
+      if (n <= offsets.length)
+         return;
+      int newlen = Math.max(n, offsets.length * 2);
+      offsets = Arrays.copyOf(offsets, newlen);
+      capacities = Arrays.copyOf(capacities, newlen);
+   }
+
+   private int blockNumber(long pos, int len) throws IOException {
+      if (pos % blocksize != 0 || len % blocksize != 0)
+         throw new IOException("compressed files only support whole-block I/O");
+      return (int) (pos / blocksize);
+   }
+
+   private void readFully(ByteBuffer dst, long pos) throws IOException {
+      long start = pos - dst.position();
+      while (dst.hasRemaining())
+         if (data.read(dst, start + dst.position()) < 0)
+            throw new EOFException();
+   }
+
+   private void writeFully(ByteBuffer src, long pos) throws IOException {
+      long start = pos - src.position();
+      while (src.hasRemaining())
+         data.write(src, start + src.position());
+   }
+
+   private static boolean isZero(byte[] b) {
+      for (byte x : b)
+         if (x != 0)
+            return false;
+      return true;
+   }
+
+   private static int roundUp(int n) {
+      return (n + EXTENT_UNIT - 1) / EXTENT_UNIT * EXTENT_UNIT;
+   }
+}
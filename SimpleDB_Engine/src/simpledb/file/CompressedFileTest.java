@@ -0,0 +1,35 @@
+package simpledb.file;
+
+import java.io.File;
+import simpledb.server.SimpleDB;
+
+public class CompressedFileTest {
+   public static void main(String[] args) {
+      File dir = new File("compressedfiletest");   // AM: Starts from an empty directory, so the counts below are this run's
+      if (dir.exists()) {
+         for (String name : dir.list())
+            new File(dir, name).delete();
+         dir.delete();
+      }
+      SimpleDB.FILE_BACKEND = FileBackend.COMPRESSED;
+      SimpleDB db = new SimpleDB("compressedfiletest", 4096, 8);
+      FileMgr fm = db.fileMgr();
+
+      // AM: Mostly-empty pages, like record pages of padded varchar slots
+      Page p = new Page(fm.blockSize());
+      for (int i=0; i<10; i++) {
+         BlockId blk = fm.append("ctest.tbl");
+         p.setInt(0, i);
+         p.setString(100, "record " + i);
+         fm.write(blk, p);
+      }
+      fm.force("ctest.tbl");
+
+      Page p2 = new Page(fm.blockSize());
+      fm.read(new BlockId("ctest.tbl", 7), p2);
+      System.out.println("block 7 contains " + p2.getInt(0) + " and " + p2.getString(100));
+      System.out.println("logical blocks " + fm.length("ctest.tbl"));
+      System.out.println("stored bytes " + new File("compressedfiletest", "ctest.tbl").length()
+            + " for " + (fm.length("ctest.tbl") * fm.blockSize()) + " bytes of pages");
+   }
+}
@@ -0,0 +1,14 @@
+package simpledb.file;
+
+/**
+ * AM: How hard FileMgr works to get writes onto the disk.
+ *    SYNC_WRITES     -> log and data files are opened "rws", so every single page write
+ *                       is a synchronous disk write (the original SimpleDB behavior).
+ *    FORCE_AT_COMMIT -> log and data files are opened "rw" and written through the OS cache.
+ *                       The log is forced whenever LogMgr flushes it, and data files are
+ *                       forced once per commit/rollback, after the transaction's buffers are written.
+ * In both modes temp files are opened "rw" and are never forced.
+ */
+public enum Durability {
+   SYNC_WRITES, FORCE_AT_COMMIT
+}
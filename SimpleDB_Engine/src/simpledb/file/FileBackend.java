@@ -0,0 +1,16 @@
+package simpledb.file;
+
+/**
+ * AM: Which BlockFile implementation FileMgr uses for data files
+ * (tables, indexes and the catalog).
+ *    CHANNEL -> positional FileChannel reads and writes (one syscall per block)
+ *    MAPPED  -> the file is memory-mapped; a block read is a memory copy from the mapping
+ *    COMPRESSED -> each block is LZ-compressed on write and decompressed on read (CompressedBlockFile).
+ *                  The on-disk format differs, so this is recorded in the database header and
+ *                  a database must always be opened with (or always without) it.
+ * The log and temp files always use CHANNEL: the log is append-only and written a
+ * block at a time, and temp files are short-lived, so neither benefits from a mapping.
+ */
+public enum FileBackend {
+   CHANNEL, MAPPED, COMPRESSED
+}
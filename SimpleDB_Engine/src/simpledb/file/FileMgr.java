@@ -1,9 +1,16 @@
 package simpledb.file;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
-
-import javax.management.RuntimeErrorException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.lang.management.ManagementFactory;
+import javax.management.*;
 
 /* Handles the interaction with the OS file system. */
 /**
@@ -17,39 +24,107 @@ import javax.management.RuntimeErrorException;
  * - Formula: Physical Position = Block Number * Block Size.
  * * 2. THE BRIDGE (Disk <-> Page)
  * - read(): Pours bytes from the Disk Channel into a Page memory buffer.
+ * - readBlocks(): Pours several consecutive blocks into several Pages with one vectored (scatter) read.
  * - write(): Pours bytes from a Page memory buffer into the Disk Channel.
  * * 3. SYNCHRONIZATION
- * - All I/O methods are 'synchronized'.
- * - This prevents race conditions where two threads try to move the file cursor (seek)
- * of the same file at the same time.
- * * 4. FILE EXTENSION & TRUNCATION
+ * - read() and write() use positional I/O (an explicit offset on every call).
+ * - Positional I/O never moves a shared file cursor, so no seek() is needed and
+ * threads reading different blocks (or different files) proceed in parallel.
+ * - append() and truncate() change the length of a file, so they lock only that file
+ * (the file's BlockFile object) instead of the whole FileMgr.
+ * * 4. STORAGE BACKENDS
+ * - Each open file is a BlockFile. Log and temp files are always ChannelBlockFiles.
+ * - Data files use the FileBackend chosen at construction: CHANNEL (positional FileChannel I/O),
+ * MAPPED (MappedBlockFile, which copies blocks out of memory-mapped segments) or
+ * COMPRESSED (CompressedBlockFile, which stores LZ-compressed blocks plus a block map).
+ * * 5. DURABILITY
+ * - Files are opened according to the Durability mode and their FileType.
+ * - In FORCE_AT_COMMIT mode nothing is synchronous on write; force() pushes one file to disk
+ * (used by LogMgr) and forceDataFiles() pushes every data file written since the last force
+ * (used by BufferMgr.flushAll at commit/rollback). Temp files are never forced.
+ * - Each open file counts its completed writes, and remembers how many of them the latest force covered.
+ * A force that is already running may have started before the caller's writes, so force() never just
+ * skips a file being forced: it takes the file's force lock and re-checks, forcing again unless a force
+ * that started after the caller's writes has covered them.
+ * * 6. FILE EXTENSION & TRUNCATION
  * - append(): grows the file when new space is needed.
+ * - Files grow one extent (EXTENT_BYTES worth of blocks) at a time. The logical length of each
+ * open file is cached in memory, so length() and most append() calls never touch the disk:
+ * append() just hands out the next preallocated (all-zero) block.
+ * - The logical length is never guessed from block contents: a freshly formatted record page or
+ * an empty hash bucket is all zeros too. Instead each file (except temp files) has a small sidecar,
+ * <file>.len, holding its logical length. It is rewritten and synced whenever the file is forced, before
+ * the file itself, so every block a commit depends on is covered; in SYNC_WRITES mode, where nothing is
+ * forced, it is rewritten by any write past the recorded length. Opening a file trims it to the recorded
+ * length, so preallocated blocks never turn into data, whether or not the last run ended with close().
+ * A file without a sidecar (written before it existed) keeps its physical length.
  * - truncate(): (Exercise 5.48) shrinks the file during rollback to prevent data bloat.
+ * * 7. DATABASE HEADER
+ * - The block size belongs to the database: it is recorded in the HEADER_FILE when the database
+ * is created, and an existing database is always opened with the size it was created with,
+ * whatever size the caller asked for. blockSize() returns the size actually in use.
+ * - A database created before the header existed has no header; it is opened with the
+ * requested size (SimpleDB passes LEGACY_BLOCK_SIZE for those), which is then recorded.
+ * - The header also records whether data files are compressed, since that changes their format.
+ * * 8. STATISTICS
+ * - Every open file carries a FileStats: block reads/writes/appends, extensions, forces, bytes,
+ * and latency histograms. All counters are striped (LongAdder), so the hot path only adds a
+ * couple of System.nanoTime() calls and an uncontended increment.
+ * - Temp files all share one FileStats, reported as the file "temp" (FileType.statsKey()).
+ * - fileStats() returns snapshots; the same data is published over JMX (FileMgrMXBean).
+ * - getBlockStatistics()/resetBlockStatistics() keep the single per-statement counter used by the JDBC connections.
  */
-public class FileMgr {
+public class FileMgr implements FileMgrMXBean {
    private File dbDirectory;
    private int blocksize;                             // AM: Size of a Block read in from Disk. The Page size will be equivalent to Block size.
    private boolean isNew;
-   private Map<String,RandomAccessFile> openFiles = new HashMap<>();
-   private int blockStatistics;                       // AM: Maintains block tracking statistics
+   public static final String HEADER_FILE = "simpledb.header";                 // AM: Per-database properties, currently just the block size
+   public static final int LEGACY_BLOCK_SIZE = 400;                            // AM: The block size every database used before the header was introduced
+   private static final int EXTENT_BYTES = 64 * 1024;                          // AM: How much a file grows by when append() runs out of preallocated blocks
+   public static final String LENGTH_SUFFIX = ".len";                          // AM: Sidecar holding a file's logical length; see section 6
+   private int extentBlocks;
+   private Map<String,OpenFile> openFiles = new ConcurrentHashMap<>();         // AM: Concurrent so lookups don't need a global lock
+   private FileStats tempStats = new FileStats();                              // AM: Shared by every temp file
+   private LongAdder blockStatistics = new LongAdder();                        // AM: Maintains block tracking statistics
+   private Durability durability;
+   private FileBackend backend;
+   private PageArena arena;                                                    // AM: Off-heap page frames for the buffer pool and temporary Pages
+   private ExecutorService ioThreads = Executors.newCachedThreadPool(r -> {    // AM: Runs readBlocksAsync(); threads are only created when used
+      Thread t = new Thread(r, "simpledb-io");
+      t.setDaemon(true);
+      return t;
+   });
 
    public FileMgr(File dbDirectory, int blocksize) {
+      this(dbDirectory, blocksize, Durability.FORCE_AT_COMMIT, FileBackend.CHANNEL);
+   }
+
+   public FileMgr(File dbDirectory, int blocksize, Durability durability, FileBackend backend) {
       this.dbDirectory = dbDirectory;
-      this.blocksize = blocksize;
+      this.durability = durability;
+      this.backend = backend;
       isNew = !dbDirectory.exists();
 
       // create the directory if the database is new
       if (isNew)
          dbDirectory.mkdirs();
 
+      this.blocksize = readHeader(dbDirectory, blocksize, backend == FileBackend.COMPRESSED);   // AM: The recorded size wins over the requested one
+      extentBlocks = Math.max(1, EXTENT_BYTES / this.blocksize);
+      arena = new PageArena(this.blocksize);
+
       // remove any leftover temporary tables
       for (String filename : dbDirectory.list())
          if (filename.startsWith("temp"))
          		new File(dbDirectory, filename).delete();
+
+      registerMBean();
    }
 
-   /* AM: read(),  write(), and append() are synchronized to allow only one thread to be executing them at a time.
-    * This is needed to maintain consistency when methods share updateable objects, such as RandomAccessFile objects.
+   /* AM: read() and write() are NOT synchronized.
+    * Each call passes the file position explicitly to the BlockFile, so two threads never race on
+    * a shared file cursor. Concurrent transactions scanning different tables (or different blocks
+    * of the same table) therefore get parallel I/O instead of queueing behind one FileMgr monitor.
 
    *  AM: read()
    * [ Disk / File ]  ------ Data Flows THIS Way ----->  [ RAM / Page ]
@@ -59,11 +134,13 @@ public class FileMgr {
       (The Source)                                   (The Destination)
    */
 
-   public synchronized void read(BlockId blk, Page p) {
+   public void read(BlockId blk, Page p) {
       try {
-         RandomAccessFile f = getFile(blk.fileName());   // AM: Handles the actual I/O operations and positioning within the File.
-         f.seek(blk.number() * blocksize);
-         f.getChannel().read(p.contents());              // AM: Read data from File (the channel) and insert into the Page. FileMgr pours bytes from disk directly into Page object which is passed-by-reference.  Source = Disk File, Destination = Page (ByteBuffer).
+         OpenFile f = getFile(blk.fileName());                   // AM: The BlockFile handles the actual I/O operations within the File.
+         long pos = (long) blk.number() * blocksize;             // AM: Physical position of the block; passed along instead of seek()
+         long start = System.nanoTime();
+         f.io.read(pos, p.contents());                           // AM: Pours bytes from disk directly into the Page object which is passed-by-reference.  Source = Disk File, Destination = Page (ByteBuffer).
+         f.stats.recordRead(1, blocksize, System.nanoTime() - start);
          trackBlocks();
       }
       catch (IOException e) {
@@ -71,6 +148,36 @@ public class FileMgr {
       }
    }
 
+   /**
+    * AM: Reads pages.length consecutive blocks of the file, starting at firstBlock,
+    * into the pages (pages[0] gets firstBlock) using one scatter read.
+    * With small blocks the per-call syscall overhead dominates a sequential scan,
+    * so one call for N blocks costs about the same as one call for a single block.
+    */
+   public void readBlocks(String filename, int firstBlock, Page[] pages) {
+      try {
+         OpenFile f = getFile(filename);
+         ByteBuffer[] bbs = new ByteBuffer[pages.length];
+         for (int i=0; i<pages.length; i++)
+            bbs[i] = pages[i].contents();
+         long start = System.nanoTime();
+         f.io.read((long) firstBlock * blocksize, bbs);
+         f.stats.recordRead(pages.length, blocksize, System.nanoTime() - start);
+         trackBlocks(pages.length);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot read blocks " + firstBlock + "-" + (firstBlock + pages.length - 1) + " of " + filename);
+      }
+   }
+
+   /**
+    * AM: readBlocks() on a background I/O thread.
+    * The pages must not be used until the returned future has completed.
+    */
+   public CompletableFuture<Void> readBlocksAsync(String filename, int firstBlock, Page[] pages) {
+      return CompletableFuture.runAsync(() -> readBlocks(filename, firstBlock, pages), ioThreads);
+   }
+
    /* AM: write()
    *  [ Disk / File ]  <----- Data Flows THIS Way ------  [ RAM / Page ]
             ^                                                   ^
@@ -79,44 +186,169 @@ public class FileMgr {
       (The Destination)                                    (The Source)
     */
 
-   public synchronized void write(BlockId blk, Page p) {
+   public void write(BlockId blk, Page p) {
       try {
-         RandomAccessFile f = getFile(blk.fileName());   // AM: RandomAccessFile acts like a cursor that lets you point to a specific location in that file (ie. a vinyl record arm that can be moved to any part of the record).  RandomAccessFile is the bridge to the OS.
-         f.seek(blk.number() * blocksize);               // AM: Moves cursor of RandomAccessFile to a specific point in File (ie. block number * blocksize)
-         f.getChannel().write(p.contents());             // AM: Write data to the file (the channel) by taking it from the Buffer. Source = Page(ByteBuffer), Destination = Disk file
-         trackBlocks();                                  // AM: track blocks
+         OpenFile f = getFile(blk.fileName());
+         long pos = (long) blk.number() * blocksize;             // AM: Block number * blocksize, handed to the BlockFile with each write
+         long start = System.nanoTime();
+         f.io.write(pos, p.contents());                          // AM: Write data to the file by taking it from the Buffer. Source = Page(ByteBuffer), Destination = Disk file
+         f.stats.recordWrite(blocksize, System.nanoTime() - start);
+         extendTo(f, blk.number());
+         syncLength(f);
+         trackBlocks();                                           // AM: track blocks
+         f.writes.incrementAndGet();                              // AM: Counted once the write has completed
       }
       catch (IOException e) {
          throw new RuntimeException("cannot write block" + blk);
       }
    }
 
-   public synchronized BlockId append(String filename) {
-      int newblknum = length(filename);                     // AM: Existing file size / block size = new block number
-      BlockId blk = new BlockId(filename, newblknum);
-      byte[] b = new byte[blocksize];
+   /**
+    * AM: Starts reading the block into the Page and returns without waiting for the disk.
+    * The Page must not be used until the returned future has completed.
+    * Channel-backed files use an AsynchronousFileChannel; mapped files just copy and complete at once.
+    */
+   public CompletableFuture<Void> readAsync(BlockId blk, Page p) {
+      try {
+         OpenFile f = getFile(blk.fileName());
+         long pos = (long) blk.number() * blocksize;
+         trackBlocks();
+         long start = System.nanoTime();
+         return f.io.readAsync(pos, p.contents())
+               .whenComplete((v, e) -> f.stats.recordRead(1, blocksize, System.nanoTime() - start));   // AM: Latency = issue to completion
+      }
+      catch (IOException e) {
+         return CompletableFuture.failedFuture(e);
+      }
+   }
+
+   /**
+    * AM: Starts writing the Page to the block and returns without waiting for the disk.
+    * The Page must not be modified, and the file not forced, until the returned future has completed.
+    */
+   public CompletableFuture<Void> writeAsync(BlockId blk, Page p) {
+      try {
+         OpenFile f = getFile(blk.fileName());
+         long pos = (long) blk.number() * blocksize;
+         trackBlocks();
+         extendTo(f, blk.number());
+         long start = System.nanoTime();
+         return f.io.writeAsync(pos, p.contents())
+               .whenComplete((v, e) -> {
+                  f.stats.recordWrite(blocksize, System.nanoTime() - start);
+                  if (e != null)
+                     return;
+                  try {
+                     syncLength(f);
+                  }
+                  catch (IOException ex) {
+                     throw new UncheckedIOException(ex);         // AM: Fails the returned future
+                  }
+                  f.writes.incrementAndGet();                    // AM: Not counted until the disk has the data
+               });
+      }
+      catch (IOException e) {
+         return CompletableFuture.failedFuture(e);
+      }
+   }
+
+   // AM: Locks only the file being extended, so appends to different files don't block each other
+   public BlockId append(String filename) {
       try {
-         RandomAccessFile f = getFile(blk.fileName());      // AM: getFile() checks if openFiles hashmap contains that blockId filename; if not, it creates a new RandomAccessFile object to open the connection to the existing disk file.
-         f.seek(blk.number() * blocksize);                  // AM: Calculates seek position to locate contents of block.
-         f.write(b);
-         trackBlocks();                                     // AM: track blocks
+         OpenFile f = getFile(filename);                    // AM: getFile() checks if openFiles hashmap contains that filename; if not, it opens a new BlockFile to connect to the existing disk file.
+         synchronized (f) {
+            int newblknum = f.length;                       // AM: Cached logical length = new block number
+            if (newblknum >= f.allocated) {
+               // AM: Out of preallocated blocks: grow the file by a whole extent. The new space reads as zeros.
+               f.allocated = newblknum + extentBlocks;
+               f.io.setSize((long) f.allocated * blocksize);
+               f.stats.extensions.increment();
+               trackBlocks();                               // AM: track blocks
+               f.writes.incrementAndGet();                  // AM: The new size must be forced too
+            }
+            f.length = newblknum + 1;                       // AM: The common case is just this memory update
+            f.stats.appends.increment();
+            return new BlockId(filename, newblknum);
+         }
       }
       catch (IOException e) {
-         throw new RuntimeException("cannot append block" + blk);
+         throw new RuntimeException("cannot append block to " + filename);
       }
-      return blk;
    }
 
    public int length(String filename) {
       try {
-         RandomAccessFile f = getFile(filename);
-         return (int)(f.length() / blocksize);              // AM: The same file "filename" is used and grows over time leading to new BlockId's being generated.
+         return getFile(filename).length;                   // AM: Cached; the same file "filename" grows over time leading to new BlockId's being generated.
       }
       catch (IOException e) {
          throw new RuntimeException("cannot access " + filename);
       }
    }
 
+   /**
+    * AM: Forces all writes made to the specified file onto the disk.
+    * Nothing to do in SYNC_WRITES mode, or for temp files, which never need to survive a crash.
+    */
+   public void force(String filename) {
+      if (durability == Durability.SYNC_WRITES || FileType.of(filename) == FileType.TEMP)
+         return;
+      try {
+         force(getFile(filename));
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot force " + filename);
+      }
+   }
+
+   /**
+    * AM: Forces every data file that has been written since it was last forced.
+    * Called after a transaction's buffers are flushed, so they are on disk before its commit record.
+    */
+   public void forceDataFiles() {
+      if (durability != Durability.FORCE_AT_COMMIT)
+         return;
+      for (Map.Entry<String,OpenFile> e : openFiles.entrySet()) {
+         OpenFile f = e.getValue();
+         if (FileType.of(e.getKey()) == FileType.DATA && f.writes.get() > f.forced) {
+            try {
+               force(f);
+            }
+            catch (IOException ex) {
+               throw new RuntimeException("cannot force " + e.getKey());
+            }
+         }
+      }
+   }
+
+   /* AM: Returns once every write that completed before the call is on disk.
+    *     Writes are counted after they complete, so a force covers every write counted before it starts.
+    *     Only one force per file runs at a time; a caller that waited for another force re-checks
+    *     whether that force covered its writes, and forces again if it started too early.
+    */
+   private void force(OpenFile f) throws IOException {
+      long mine = f.writes.get();
+      if (mine <= f.forced)
+         return;
+      synchronized (f.forceLock) {
+         if (mine <= f.forced)
+            return;                                         // AM: Covered by a force that started after our writes
+         long covered = f.writes.get();
+         long start = System.nanoTime();
+         recordLength(f);                                   // AM: Before the file, so a commit never depends on blocks past the recorded length
+         f.io.force();
+         f.stats.recordForce(System.nanoTime() - start);
+         f.forced = covered;
+      }
+   }
+
+   public Durability durability() {
+      return durability;
+   }
+
+   public FileBackend backend() {
+      return backend;
+   }
+
    public boolean isNew() {
       return isNew;
    }
@@ -125,35 +357,266 @@ public class FileMgr {
       return blocksize;
    }
 
-   private RandomAccessFile getFile(String filename) throws IOException {
-      RandomAccessFile f = openFiles.get(filename);         // AM: Looks for filename in HashMap dictionary
+   public PageArena pageArena() {
+      return arena;
+   }
+
+   public File directory() {
+      return dbDirectory;
+   }
+
+   /**
+    * AM: Returns true if the directory holds a database that was created before
+    * the header file existed (so its block size is not recorded anywhere).
+    */
+   public static boolean isLegacyDatabase(File dbDirectory) {
+      String[] files = dbDirectory.list();
+      return files != null && files.length > 0 && !new File(dbDirectory, HEADER_FILE).exists();
+   }
+
+   // AM: Reads the block size from the header, creating the header with the requested size if there is none
+   private static int readHeader(File dbDirectory, int requested, boolean compressed) {
+      File header = new File(dbDirectory, HEADER_FILE);
+      Properties props = new Properties();
+      try {
+         if (header.exists()) {
+            try (InputStream in = new FileInputStream(header)) {
+               props.load(in);
+            }
+            int recorded = Integer.parseInt(props.getProperty("blocksize"));
+            if (recorded <= 0)
+               throw new NumberFormatException();
+            if (Boolean.parseBoolean(props.getProperty("compressed")) != compressed)
+               throw new IllegalStateException(dbDirectory + (compressed ? " is not compressed" : " is compressed; open it with FileBackend.COMPRESSED"));
+            return recorded;
+         }
+         if (compressed && isLegacyDatabase(dbDirectory))
+            throw new IllegalStateException(dbDirectory + " is not compressed");
+         props.setProperty("blocksize", Integer.toString(requested));
+         props.setProperty("compressed", Boolean.toString(compressed));
+         try (FileOutputStream out = new FileOutputStream(header)) {
+            props.store(out, "SimpleDB database header");
+            out.getFD().sync();                  // AM: The header must be on disk before any block that depends on it
+         }
+         return requested;
+      }
+      catch (IllegalStateException e) {
+         throw e;
+      }
+      catch (IOException | RuntimeException e) {
+         throw new RuntimeException("cannot read or create database header " + header);
+      }
+   }
+
+   private OpenFile getFile(String filename) throws IOException {
+      OpenFile f = openFiles.get(filename);                 // AM: Looks for filename in HashMap dictionary
       if (f == null) {
-         File dbTable = new File(dbDirectory, filename);    // AM: Create dbTable object with the structure dbDirectory (parent) and filename (child)
-         f = new RandomAccessFile(dbTable, "rws");          // AM: Establishes a connection to the physical file on Disk, represented as a FileDescriptor. It allows manipulation of a "file pointer" to move to a specific byte position for reading/writing w/o reading the entire file into memory at once. "rws" = Read, Write, Synchronous.
-         openFiles.put(filename, f);                        // AM: Store filename inside dbTable directory
+         synchronized (openFiles) {                         // AM: Only taken the first time a file is opened, so two threads can't open the same file twice
+            f = openFiles.get(filename);
+            if (f == null) {
+               File dbTable = new File(dbDirectory, filename);    // AM: Create dbTable object with the structure dbDirectory (parent) and filename (child)
+               f = new OpenFile();
+               f.io = openBlockFile(dbTable, FileType.of(filename)); // AM: Establishes a connection to the physical file on Disk. It allows reading/writing at a specific byte position w/o reading the entire file into memory at once.
+               f.allocated = (int) (f.io.size() / blocksize);
+               f.length = f.allocated;
+               if (FileType.of(filename) != FileType.TEMP)
+                  openLengthFile(f, new File(dbDirectory, filename + LENGTH_SUFFIX));
+               else
+                  f.stats = tempStats;
+               openFiles.put(filename, f);                        // AM: Store filename inside dbTable directory
+            }
+         }
       }
       return f;
    }
 
+   // AM: Opens the file's length sidecar and trims the file to the length recorded there; see section 6
+   private void openLengthFile(OpenFile f, File sidecar) throws IOException {
+      f.lengthFile = new RandomAccessFile(sidecar, "rw");
+      if (f.lengthFile.length() < Integer.BYTES)
+         return;                                             // AM: No length recorded yet; the physical length stands
+      f.lengthFile.seek(0);
+      int recorded = f.lengthFile.readInt();
+      f.recorded = recorded;
+      if (recorded < f.allocated) {
+         f.io.setSize((long) recorded * blocksize);          // AM: Drops the preallocated blocks, so append() hands out zeros again
+         f.allocated = recorded;
+         f.length = recorded;
+      }
+   }
+
+   // AM: Records the file's logical length in its sidecar and syncs it. Called holding the file's forceLock.
+   private void recordLength(OpenFile f) throws IOException {
+      int len = f.length;
+      if (f.lengthFile == null || len == f.recorded)
+         return;
+      f.lengthFile.seek(0);
+      f.lengthFile.writeInt(len);
+      f.lengthFile.getFD().sync();
+      f.recorded = len;
+   }
+
+   // AM: In SYNC_WRITES mode nothing is forced, so a write past the recorded length records the new length at once
+   private void syncLength(OpenFile f) throws IOException {
+      if (durability != Durability.SYNC_WRITES || f.lengthFile == null || f.length <= f.recorded)
+         return;
+      synchronized (f.forceLock) {
+         recordLength(f);
+      }
+   }
+
+   /**
+    * AM: Trims every open file to its logical length, dropping the preallocated rest of its last
+    * extent, then forces and closes it. Called at a clean shutdown, when no transaction is running.
+    * A file used again afterwards is simply reopened.
+    */
+   public void close() {
+      for (Map.Entry<String,OpenFile> e : openFiles.entrySet()) {
+         OpenFile f = e.getValue();
+         try {
+            synchronized (f) {
+               if (f.allocated > f.length) {
+                  f.io.setSize((long) f.length * blocksize);
+                  f.allocated = f.length;
+               }
+            }
+            if (FileType.of(e.getKey()) != FileType.TEMP) {
+               synchronized (f.forceLock) {
+                  recordLength(f);
+               }
+               f.io.force();
+            }
+            openFiles.remove(e.getKey());
+            f.io.close();
+            if (f.lengthFile != null)
+               f.lengthFile.close();
+         }
+         catch (IOException ex) {
+            throw new RuntimeException("cannot close " + e.getKey());
+         }
+      }
+   }
+
+   // AM: A write past the logical end (e.g. a block written without append()) makes the file that long
+   private void extendTo(OpenFile f, int blknum) {
+      if (blknum < f.length)
+         return;
+      synchronized (f) {
+         if (blknum >= f.length)
+            f.length = blknum + 1;
+         if (f.length > f.allocated)
+            f.allocated = f.length;
+      }
+   }
+
+   // AM: Data files go to the configured backend; the log and temp files always use positional channel I/O
+   private BlockFile openBlockFile(File file, FileType type) throws IOException {
+      boolean sync = (durability == Durability.SYNC_WRITES && type != FileType.TEMP);
+      if (backend == FileBackend.MAPPED && type == FileType.DATA)
+         return new MappedBlockFile(file, blocksize, sync);
+      if (backend == FileBackend.COMPRESSED && type == FileType.DATA)
+         return new CompressedBlockFile(file, blocksize, sync);
+      return new ChannelBlockFile(file, sync ? "rws" : "rw");   // AM: "rws" = Read, Write, Synchronous (every write waits for the disk). "rw" = writes go through the OS cache until forced.
+   }
+
    // AM: Track read/write block statistics
    private void trackBlocks(){
-      blockStatistics = blockStatistics + 1;
+      blockStatistics.increment();         // AM: Striped, since read() and write() are no longer serialized
+   }
+
+   private void trackBlocks(int n){
+      blockStatistics.add(n);
    }
 
    public void resetBlockStatistics(){
-      blockStatistics = 0;
+      blockStatistics.reset();
    }
 
    // AM: Return block statistics
    public int getBlockStatistics(){
-      return blockStatistics;
+      return (int) blockStatistics.sum();
+   }
+
+   /**
+    * AM: Returns a snapshot of one file's I/O statistics
+    * (all zeros if the file has not been opened).
+    */
+   public FileStatsSnapshot fileStats(String filename) {
+      if (FileType.of(filename) == FileType.TEMP)
+         return tempStats.snapshot(FileType.TEMP_STATS);
+      OpenFile f = openFiles.get(filename);
+      return (f == null) ? new FileStats().snapshot(filename) : f.stats.snapshot(filename);
+   }
+
+   // AM: Snapshots of every open file, sorted by name
+   public Map<String,FileStatsSnapshot> getFileStats() {
+      Map<String,FileStatsSnapshot> result = new TreeMap<>();
+      for (Map.Entry<String,OpenFile> e : openFiles.entrySet()) {
+         String key = FileType.statsKey(e.getKey());
+         result.put(key, e.getValue().stats.snapshot(key));
+      }
+      return result;
+   }
+
+   public void resetStatistics() {
+      resetBlockStatistics();
+      tempStats.reset();
+      for (OpenFile f : openFiles.values())
+         f.stats.reset();
+   }
+
+   /* AM: Publishes this FileMgr over JMX. A newer FileMgr for the same directory replaces the old registration.
+    *     Statistics are optional, so a JMX failure never stops the database from starting.
+    */
+   private void registerMBean() {
+      try {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName name = new ObjectName("simpledb:type=FileMgr,name=" + ObjectName.quote(dbDirectory.getPath()));
+         if (server.isRegistered(name))
+            server.unregisterMBean(name);
+         server.registerMBean(this, name);
+      }
+      catch (JMException e) {
+         // AM: Ignored; fileStats() still works
+      }
+   }
+
+   /**
+    * AM: An open file plus its cached sizes, both counted in blocks.
+    *    length    -> the logical length that the upper layers see (what length() returns)
+    *    allocated -> how far the file has physically been extended; the blocks in between
+    *                 are preallocated zeros waiting to be handed out by append()
+    * Both only change while holding the OpenFile's lock.
+    *    writes    -> completed writes and size changes; forced -> how many of them the latest force covered
+    *    recorded  -> the length last written to the length sidecar (-1 = none); only changed under forceLock
+    */
+   private static class OpenFile {
+      BlockFile io;
+      RandomAccessFile lengthFile;      // AM: null for temp files
+      volatile int recorded = -1;
+      FileStats stats = new FileStats();
+      volatile int length;
+      int allocated;
+      final AtomicLong writes = new AtomicLong();
+      volatile long forced = 0;         // AM: Only changed under forceLock
+      final Object forceLock = new Object();
    }
 
    // AM: Exercise 5.48 - Adding truncate to remove extra blocks created during append(), but rolled-back
-   public synchronized void truncate(String filename, int blknum){
+   public void truncate(String filename, int blknum){
       try{
-         RandomAccessFile f = getFile(filename);
-         f.setLength(blknum * blocksize);          // AM: Chops the file
+         OpenFile f = getFile(filename);
+         synchronized (f) {                        // AM: Same per-file lock as append()
+            f.io.setSize((long) blknum * blocksize);  // AM: Chops the file, preallocated space included
+            f.length = blknum;
+            f.allocated = blknum;
+         }
+         if (durability == Durability.SYNC_WRITES && f.lengthFile != null) {
+            synchronized (f.forceLock) {
+               recordLength(f);
+            }
+         }
+         f.writes.incrementAndGet();
       }
       catch(IOException e){
          throw new RuntimeException("cannot truncate file "+ filename);
@@ -0,0 +1,104 @@
+package simpledb.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+/**
+ * AM: Multi-threaded block read benchmark for FileMgr.
+ * Each thread reads random blocks from its own file (like concurrent transactions scanning
+ * different tables). Two modes are measured for 1..MAX_THREADS threads:
+ *    serialized -> the old FileMgr read path: seek() + read() on a RandomAccessFile,
+ *                  all inside one shared monitor, as when FileMgr.read() was synchronized
+ *    positional -> FileMgr.read() as is, using positional channel reads without a global lock
+ * The files are filled with written pages first, so every read fetches real data rather than
+ * a preallocated hole.
+ * Usage: java simpledb.file.FileMgrBenchmark [blocksPerFile] [millisPerRun]
+ */
+public class FileMgrBenchmark {
+   private static final int BLOCK_SIZE = 4096;
+   private static final int MAX_THREADS = 16;
+
+   public static void main(String[] args) throws Exception {
+      int blocksPerFile = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+      long millis = (args.length > 1) ? Long.parseLong(args[1]) : 2000;
+
+      FileMgr fm = new FileMgr(new File("filemgrbenchmark"), BLOCK_SIZE);
+      System.out.println("Creating " + MAX_THREADS + " files of " + blocksPerFile + " blocks");
+      Random rand = new Random(0);
+      byte[] data = new byte[BLOCK_SIZE - Integer.BYTES];
+      Page p = new Page(BLOCK_SIZE);
+      RandomAccessFile[] oldFiles = new RandomAccessFile[MAX_THREADS];
+      for (int i=0; i<MAX_THREADS; i++) {
+         String filename = fileName(i);
+         for (int b=0; b<blocksPerFile; b++) {
+            BlockId blk = (b < fm.length(filename)) ? new BlockId(filename, b) : fm.append(filename);
+            rand.nextBytes(data);
+            p.setBytes(0, data);
+            fm.write(blk, p);
+         }
+         fm.force(filename);
+         oldFiles[i] = new RandomAccessFile(new File(fm.directory(), filename), "r");
+      }
+
+      System.out.println("threads  serialized(reads/s)  positional(reads/s)  speedup");
+      for (int threads=1; threads<=MAX_THREADS; threads*=2) {
+         double serial = run(fm, oldFiles, threads, blocksPerFile, millis, true);
+         double positional = run(fm, oldFiles, threads, blocksPerFile, millis, false);
+         System.out.printf("%7d  %19.0f  %19.0f  %7.2f%n", threads, serial, positional, positional / serial);
+      }
+      for (RandomAccessFile f : oldFiles)
+         f.close();
+   }
+
+   private static double run(FileMgr fm, RandomAccessFile[] oldFiles, int threads, int blocksPerFile, long millis, boolean serialized) throws InterruptedException {
+      Object globalLock = new Object();   // AM: Stands in for the old FileMgr monitor
+      long[] counts = new long[threads];
+      long deadline = System.currentTimeMillis() + millis;
+      Thread[] workers = new Thread[threads];
+      for (int t=0; t<threads; t++) {
+         final int id = t;
+         workers[t] = new Thread(() -> {
+            Random rand = new Random(id);
+            Page p = new Page(fm.blockSize());
+            String filename = fileName(id);
+            long n = 0;
+            while (System.currentTimeMillis() < deadline) {
+               BlockId blk = new BlockId(filename, rand.nextInt(blocksPerFile));
+               if (serialized) {
+                  synchronized (globalLock) {
+                     seekAndRead(oldFiles[id], blk, p);
+                  }
+               }
+               else
+                  fm.read(blk, p);
+               n++;
+            }
+            counts[id] = n;
+         });
+         workers[t].start();
+      }
+      long total = 0;
+      for (int t=0; t<threads; t++) {
+         workers[t].join();
+         total += counts[t];
+      }
+      return total * 1000.0 / millis;
+   }
+
+   // AM: What FileMgr.read() did before positional I/O: move the shared file cursor, then read at it
+   private static void seekAndRead(RandomAccessFile f, BlockId blk, Page p) {
+      try {
+         f.seek((long) blk.number() * BLOCK_SIZE);
+         f.getChannel().read(p.contents());
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot read block " + blk);
+      }
+   }
+
+   private static String fileName(int i) {
+      return "bench" + i + ".tbl";
+   }
+}
@@ -0,0 +1,19 @@
+package simpledb.file;
+
+import java.util.Map;
+
+/**
+ * AM: The JMX management interface of FileMgr.
+ * Each FileMgr registers itself as simpledb:type=FileMgr,name="<db directory>"
+ * so the statistics can be watched with jconsole/VisualVM while the server runs.
+ */
+public interface FileMgrMXBean {
+   /** Blocks read or written (plus file extensions) since the last reset. */
+   int getBlockStatistics();
+
+   /** A snapshot of every open file's statistics, keyed by file name. */
+   Map<String,FileStatsSnapshot> getFileStats();
+
+   /** Clears the block counter and all per-file statistics. */
+   void resetStatistics();
+}
@@ -0,0 +1,54 @@
+package simpledb.file;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AM: The live I/O counters of one file, updated by FileMgr on every operation.
+ * All counters are LongAdders, so concurrent readers and writers of the same file
+ * only touch their own stripe. snapshot() turns them into a FileStatsSnapshot.
+ */
+class FileStats {
+   LongAdder reads = new LongAdder();          // AM: Blocks read (a vectored read of n blocks counts n)
+   LongAdder readCalls = new LongAdder();      // AM: Read operations issued to the BlockFile
+   LongAdder writes = new LongAdder();         // AM: Blocks written
+   LongAdder appends = new LongAdder();        // AM: Blocks handed out by append()
+   LongAdder extensions = new LongAdder();     // AM: Times the file was physically grown by an extent
+   LongAdder forces = new LongAdder();
+   LongAdder bytesRead = new LongAdder();
+   LongAdder bytesWritten = new LongAdder();
+   LatencyHistogram readLatency = new LatencyHistogram();    // AM: Per read operation
+   LatencyHistogram writeLatency = new LatencyHistogram();
+   LatencyHistogram forceLatency = new LatencyHistogram();
+
+   void recordRead(int blocks, int blocksize, long nanos) {
+      reads.add(blocks);
+      readCalls.increment();
+      bytesRead.add((long) blocks * blocksize);
+      readLatency.record(nanos);
+   }
+
+   void recordWrite(int blocksize, long nanos) {
+      writes.increment();
+      bytesWritten.add(blocksize);
+      writeLatency.record(nanos);
+   }
+
+   void recordForce(long nanos) {
+      forces.increment();
+      forceLatency.record(nanos);
+   }
+
+   FileStatsSnapshot snapshot(String filename) {
+      return new FileStatsSnapshot(filename, reads.sum(), readCalls.sum(), writes.sum(), appends.sum(),
+            extensions.sum(), forces.sum(), bytesRead.sum(), bytesWritten.sum(),
+            readLatency.counts(), writeLatency.counts(), forceLatency.counts());
+   }
+
+   void reset() {
+      for (LongAdder a : new LongAdder[] {reads, readCalls, writes, appends, extensions, forces, bytesRead, bytesWritten})
+         a.reset();
+      readLatency.reset();
+      writeLatency.reset();
+      forceLatency.reset();
+   }
+}
@@ -0,0 +1,55 @@
+package simpledb.file;
+
+/**
+ * AM: An immutable copy of one file's I/O statistics, as returned by FileMgr.fileStats().
+ * The latency arrays are LatencyHistogram bucket counts (power-of-two nanosecond buckets);
+ * the percentile getters are upper bounds taken from them.
+ * The getters follow the JavaBeans pattern so FileMgrMXBean can expose snapshots as open data.
+ */
+public class FileStatsSnapshot {
+   private String fileName;
+   private long reads, readCalls, writes, appends, extensions, forces, bytesRead, bytesWritten;
+   private long[] readLatency, writeLatency, forceLatency;
+
+   public FileStatsSnapshot(String fileName, long reads, long readCalls, long writes, long appends,
+                            long extensions, long forces, long bytesRead, long bytesWritten,
+                            long[] readLatency, long[] writeLatency, long[] forceLatency) {
+      this.fileName = fileName;
+      this.reads = reads;
+      this.readCalls = readCalls;
+      this.writes = writes;
+      this.appends = appends;
+      this.extensions = extensions;
+      this.forces = forces;
+      this.bytesRead = bytesRead;
+      this.bytesWritten = bytesWritten;
+      this.readLatency = readLatency;
+      this.writeLatency = writeLatency;
+      this.forceLatency = forceLatency;
+   }
+
+   public String getFileName()     { return fileName; }
+   public long getReads()          { return reads; }
+   public long getReadCalls()      { return readCalls; }
+   public long getWrites()         { return writes; }
+   public long getAppends()        { return appends; }
+   public long getExtensions()     { return extensions; }
+   public long getForces()         { return forces; }
+   public long getBytesRead()      { return bytesRead; }
+   public long getBytesWritten()   { return bytesWritten; }
+   public long[] getReadLatency()  { return readLatency.clone(); }
+   public long[] getWriteLatency() { return writeLatency.clone(); }
+   public long[] getForceLatency() { return forceLatency.clone(); }
+
+   public long getReadP50Nanos()   { return LatencyHistogram.percentile(readLatency, 50); }
+   public long getReadP99Nanos()   { return LatencyHistogram.percentile(readLatency, 99); }
+   public long getWriteP50Nanos()  { return LatencyHistogram.percentile(writeLatency, 50); }
+   public long getWriteP99Nanos()  { return LatencyHistogram.percentile(writeLatency, 99); }
+   public long getForceP99Nanos()  { return LatencyHistogram.percentile(forceLatency, 99); }
+
+   public String toString() {
+      return String.format("%s: reads=%d (%d calls, p50<%dns p99<%dns) writes=%d (p50<%dns p99<%dns) appends=%d extensions=%d forces=%d (p99<%dns) bytesRead=%d bytesWritten=%d",
+            fileName, reads, readCalls, getReadP50Nanos(), getReadP99Nanos(), writes, getWriteP50Nanos(), getWriteP99Nanos(),
+            appends, extensions, forces, getForceP99Nanos(), bytesRead, bytesWritten);
+   }
+}
@@ -0,0 +1,38 @@
+package simpledb.file;
+
+import java.lang.management.ManagementFactory;
+import javax.management.*;
+import javax.management.openmbean.*;
+import simpledb.server.SimpleDB;
+
+public class FileStatsTest {
+   public static void main(String[] args) throws Exception {
+      SimpleDB db = new SimpleDB("filestatstest", 400, 8);
+      FileMgr fm = db.fileMgr();
+      fm.resetStatistics();
+
+      Page p = new Page(fm.blockSize());
+      for (int i=0; i<3; i++) {
+         BlockId blk = fm.append("statsfile");
+         p.setInt(0, i);
+         fm.write(blk, p);
+      }
+      fm.readBlocks("statsfile", 0, new Page[] {new Page(fm.blockSize()), new Page(fm.blockSize())});
+      fm.read(new BlockId("statsfile", 2), p);
+      fm.force("statsfile");
+
+      FileStatsSnapshot s = fm.fileStats("statsfile");
+      System.out.println("appends " + s.getAppends() + ", writes " + s.getWrites()
+            + ", reads " + s.getReads() + " in " + s.getReadCalls() + " calls, forces " + s.getForces());
+      System.out.println("bytes read " + s.getBytesRead() + ", bytes written " + s.getBytesWritten());
+      System.out.println("block statistics " + fm.getBlockStatistics());
+
+      // AM: The same numbers through JMX
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName("simpledb:type=FileMgr,name=" + ObjectName.quote(new java.io.File("filestatstest").getPath()));
+      TabularData table = (TabularData) server.getAttribute(name, "FileStats");
+      CompositeData row = table.get(new Object[] {"statsfile"});
+      CompositeData value = (CompositeData) row.get("value");
+      System.out.println("JMX reads " + value.get("reads") + ", writes " + value.get("writes"));
+   }
+}
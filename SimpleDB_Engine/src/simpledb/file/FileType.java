@@ -0,0 +1,30 @@
+package simpledb.file;
+
+/**
+ * AM: Classifies a database file by its name.
+ * The file layer uses this to decide how a file is treated on disk
+ * (e.g. whether writes to it ever need to be forced).
+ *    temp*   -> TEMP  (TempTable files; deleted on startup, never needed after a crash)
+ *    *.log   -> LOG   (the recovery log)
+ *    others  -> DATA  (tables, indexes, catalog, txn_seq)
+ */
+public enum FileType {
+   DATA, TEMP, LOG;
+
+   public static final String TEMP_STATS = "temp";
+
+   /* AM: The name a file's statistics are kept under. Every query that materializes makes new
+    *     temp files, so they all share one TEMP_STATS entry instead of one entry each.
+    */
+   public static String statsKey(String filename) {
+      return (of(filename) == TEMP) ? TEMP_STATS : filename;
+   }
+
+   public static FileType of(String filename) {
+      if (filename.startsWith("temp"))
+         return TEMP;
+      if (filename.endsWith(".log"))
+         return LOG;
+      return DATA;
+   }
+}
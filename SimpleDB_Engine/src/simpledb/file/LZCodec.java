@@ -0,0 +1,142 @@
+package simpledb.file;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * AM: A small pure-Java LZ77 codec in the style of LZ4, used by CompressedBlockFile.
+ * * FORMAT:
+ * - The output is a series of sequences. Each sequence is a token byte, some literal bytes
+ * copied as-is, then a match: "copy matchLen bytes starting offset bytes back".
+ * - Token: high 4 bits = literal count, low 4 bits = match length - MIN_MATCH.
+ * A nibble of 15 means the count continues in the following bytes (each 255 adds 255 and keeps going).
+ * - The match offset is 2 bytes (little-endian), so matches reach back at most 64KB - 1.
+ * - The last sequence has literals only; the decoder stops when the input runs out.
+ * * WHY IT WORKS WELL HERE:
+ * - Record and B-tree pages are mostly fixed-length slots padded with zeros, and a run of zeros
+ * is a single match with offset 1. An empty-ish 4KB page shrinks to a few dozen bytes.
+ * - Matches are found through a hash table of the last position where each 4-byte sequence was
+ * seen, so compression is one pass with no searching.
+ */
+class LZCodec {
+   private static final int MIN_MATCH = 4;
+   private static final int HASH_BITS = 12;
+   private static final int MAX_OFFSET = 65535;
+   private static final ThreadLocal<int[]> tables = ThreadLocal.withInitial(() -> new int[1 << HASH_BITS]);   // AM: Per-thread, like CompressedBlockFile's scratch arrays
+
+   /**
+    * Compresses src[0..srclen) into dst.
+    * @return the compressed length, or -1 if it does not fit in dst
+    */
+   static int compress(byte[] src, int srclen, byte[] dst) {
+      int[] table = tables.get();              // AM: Position + 1 of the last occurrence of each hash; 0 = never seen
+      Arrays.fill(table, 0);
+      int sp = 0;
+      int dp = 0;
+      int anchor = 0;                          // AM: Start of the literals not yet written
+      while (sp + MIN_MATCH <= srclen) {
+         int h = hash(readInt(src, sp));
+         int ref = table[h] - 1;
+         table[h] = sp + 1;
+         if (ref >= 0 && sp - ref <= MAX_OFFSET && readInt(src, ref) == readInt(src, sp)) {
+            int len = MIN_MATCH;
+            while (sp + len < srclen && src[ref + len] == src[sp + len])
+               len++;                          // AM: May run into the bytes being matched (overlap), which the decoder handles
+            dp = writeSequence(src, anchor, sp - anchor, sp - ref, len, dst, dp);
+            if (dp < 0)
+               return -1;
+            sp += len;
+            anchor = sp;
+         }
+         else
+            sp++;
+      }
+      return writeSequence(src, anchor, srclen - anchor, 0, 0, dst, dp);
+   }
+
+   /**
+    * Decompresses the srclen bytes of src starting at srcoff into dst, which must receive exactly dstlen bytes.
+    */
+   static void decompress(byte[] src, int srcoff, int srclen, byte[] dst, int dstlen) throws IOException {
+      int sp = srcoff;
+      int dp = 0;
+      int srcend = srcoff + srclen;
+      try {
+         while (sp < srcend) {
+            int token = src[sp++] & 0xFF;
+            int litlen = token >>> 4;
+            if (litlen == 15) {
+               int b;
+               do {
+                  b = src[sp++] & 0xFF;
+                  litlen += b;
+               } while (b == 255);
+            }
+            if (sp + litlen > srcend)
+               throw new IOException("corrupt compressed block");
+            System.arraycopy(src, sp, dst, dp, litlen);
+            sp += litlen;
+            dp += litlen;
+            if (sp >= srcend)
+               break;                          // AM: Last sequence: literals only
+            int offset = (src[sp] & 0xFF) | ((src[sp + 1] & 0xFF) << 8);
+            sp += 2;
+            int matchlen = token & 0x0F;
+            if (matchlen == 15) {
+               int b;
+               do {
+                  b = src[sp++] & 0xFF;
+                  matchlen += b;
+               } while (b == 255);
+            }
+            matchlen += MIN_MATCH;
+            if (offset == 0 || offset > dp)
+               throw new IOException("corrupt compressed block");
+            for (int i=0; i<matchlen; i++, dp++)
+               dst[dp] = dst[dp - offset];     // AM: Byte by byte, so overlapping matches repeat the pattern
+         }
+      }
+      catch (IndexOutOfBoundsException e) {
+         throw new IOException("corrupt compressed block");
+      }
+      if (dp != dstlen)
+         throw new IOException("corrupt compressed block");
+   }
+
+   // AM: Writes one sequence; matchlen 0 means the final literals-only sequence. Returns -1 if dst is too small.
+   private static int writeSequence(byte[] src, int litstart, int litlen, int offset, int matchlen, byte[] dst, int dp) {
+      int mlcode = (matchlen == 0) ? 0 : matchlen - MIN_MATCH;
+      int needed = 1 + (litlen / 255 + 1) + litlen + ((matchlen == 0) ? 0 : 2 + (mlcode / 255 + 1));
+      if (dp + needed > dst.length)
+         return -1;
+      dst[dp++] = (byte) ((Math.min(litlen, 15) << 4) | Math.min(mlcode, 15));
+      if (litlen >= 15)
+         dp = writeLength(litlen - 15, dst, dp);
+      System.arraycopy(src, litstart, dst, dp, litlen);
+      dp += litlen;
+      if (matchlen == 0)
+         return dp;
+      dst[dp++] = (byte) offset;
+      dst[dp++] = (byte) (offset >>> 8);
+      if (mlcode >= 15)
+         dp = writeLength(mlcode - 15, dst, dp);
+      return dp;
+   }
+
+   private static int writeLength(int n, byte[] dst, int dp) {
+      while (n >= 255) {
+         dst[dp++] = (byte) 255;
+         n -= 255;
+      }
+      dst[dp++] = (byte) n;
+      return dp;
+   }
+
+   private static int readInt(byte[] b, int i) {
+      return (b[i] & 0xFF) | ((b[i + 1] & 0xFF) << 8) | ((b[i + 2] & 0xFF) << 16) | (b[i + 3] << 24);
+   }
+
+   private static int hash(int v) {
+      return (v * -1640531535) >>> (32 - HASH_BITS);   // AM: Fibonacci hashing (2654435761 as a signed int)
+   }
+}
@@ -0,0 +1,71 @@
+package simpledb.file;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AM: A latency histogram with power-of-two buckets.
+ * Bucket i counts operations that took [2^(i-1), 2^i) nanoseconds (bucket 0 is "0 ns"),
+ * so 64 buckets cover every possible long. Each bucket is a LongAdder (a striped counter),
+ * which lets many threads record without contending on one cache line.
+ */
+public class LatencyHistogram {
+   public static final int BUCKETS = 64;
+   private LongAdder[] buckets = new LongAdder[BUCKETS];
+
+   public LatencyHistogram() {
+      for (int i=0; i<BUCKETS; i++)
+         buckets[i] = new LongAdder();
+   }
+
+   public void record(long nanos) {
+      buckets[bucket(nanos)].increment();
+   }
+
+   /**
+    * Returns the current count of every bucket.
+    * Buckets are read one at a time, so the copy is not an atomic snapshot while threads are recording.
+    * @return an array of BUCKETS counts
+    */
+   public long[] counts() {
+      long[] counts = new long[BUCKETS];
+      for (int i=0; i<BUCKETS; i++)
+         counts[i] = buckets[i].sum();
+      return counts;
+   }
+
+   public void reset() {
+      for (LongAdder b : buckets)
+         b.reset();
+   }
+
+   /**
+    * Returns an upper bound for the given percentile of a counts() array,
+    * i.e. the upper edge of the bucket that holds it.
+    * @param counts an array returned by counts()
+    * @param percentile a value between 0 and 100
+    * @return the latency in nanoseconds, or 0 if nothing was recorded
+    */
+   public static long percentile(long[] counts, double percentile) {
+      long total = 0;
+      for (long c : counts)
+         total += c;
+      if (total == 0)
+         return 0;
+      long rank = (long) Math.ceil(total * percentile / 100.0);
+      long seen = 0;
+      for (int i=0; i<counts.length; i++) {
+         seen += counts[i];
+         if (seen >= rank && counts[i] > 0)
+            return upperBound(i);
+      }
+      return upperBound(counts.length - 1);
+   }
+
+   private static int bucket(long nanos) {
+      return (nanos <= 0) ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+   }
+
+   private static long upperBound(int bucket) {
+      return (bucket >= 63) ? Long.MAX_VALUE : (1L << bucket);
+   }
+}
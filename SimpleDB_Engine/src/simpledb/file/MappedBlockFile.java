@@ -0,0 +1,254 @@
+package simpledb.file;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * AM: A BlockFile that serves reads and writes out of memory-mapped segments of the file.
+ * * HOW IT WORKS:
+ * - The file is split into fixed-size segments (a whole number of blocks, so a block never
+ * straddles two segments). Each segment is mapped with its own MappedByteBuffer the first time
+ * it is touched.
+ * - A read is a memory copy from the mapping into the Page, so reading a block that is already
+ * in the OS page cache costs no syscall.
+ * - Mappings never extend past the end of the file (mapping READ_WRITE beyond the end would grow it).
+ * When append() grows the file, the last segment is re-mapped the next time a block past its
+ * current end is touched.
+ * - Pages are copied rather than wrapped around the mapping: a Page that aliased the mapping
+ * could be written back by the OS at any time, before its log records are flushed, which
+ * would break write-ahead logging.
+ * * SYNCHRONIZATION:
+ * - Reads and writes share a read lock; setSize() takes the write lock and drops every mapping,
+ * so no thread can touch a mapping that now lies past the end of a truncated file.
+ * - Re-mapping a grown tail segment also takes the write lock, trading in the caller's read lock for it.
+ * * UNMAPPING:
+ * - A MappedByteBuffer is normally unmapped only when it is garbage collected, and Windows refuses to
+ * truncate a file that still has a mapped view. So before the file shrinks (and on close()), the
+ * segments are forced and unmapped at once with sun.misc.Unsafe.invokeCleaner(), under the write lock,
+ * so no reader or writer can be using them. The same goes for a tail segment that is re-mapped after
+ * the file grew: the shorter mapping is unmapped as it is replaced. On a JVM without it, the mappings are only dropped,
+ * and truncating may fail there until they are collected.
+ */
+class MappedBlockFile implements BlockFile {
+   private static final long MAX_SEGMENT_BYTES = 64L * 1024 * 1024;
+   private static final Object UNSAFE;
+   private static final Method INVOKE_CLEANER;   // AM: null if the JVM doesn't offer it
+
+   static {
+      Object unsafe = null;
+      Method cleaner = null;
+      try {
+         Class<?> c = Class.forName("sun.misc.Unsafe");
+         Field f = c.getDeclaredField("theUnsafe");
+         f.setAccessible(true);
+         unsafe = f.get(null);
+         cleaner = c.getMethod("invokeCleaner", ByteBuffer.class);
+      }
+      catch (ReflectiveOperationException | RuntimeException e) {
+         // AM: Not available; unmapping is left to the garbage collector
+      }
+      UNSAFE = unsafe;
+      INVOKE_CLEANER = cleaner;
+   }
+
+   private RandomAccessFile raf;
+   private FileChannel fc;
+   private long segsize;
+   private boolean syncWrites;
+   private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+   private ReadWriteLock lock = new ReentrantReadWriteLock();
+
+   /**
+    * @param file the disk file
+    * @param blocksize the block size, so that segments hold whole blocks
+    * @param syncWrites force each write to disk before returning (Durability.SYNC_WRITES)
+    */
+   MappedBlockFile(File file, int blocksize, boolean syncWrites) throws IOException {
+      raf = new RandomAccessFile(file, "rw");
+      fc = raf.getChannel();
+      segsize = Math.max(1, MAX_SEGMENT_BYTES / blocksize) * blocksize;
+      this.syncWrites = syncWrites;
+   }
+
+   public void read(long pos, ByteBuffer dst) throws IOException {
+      lock.readLock().lock();
+      try {
+         while (dst.hasRemaining()) {
+            MappedByteBuffer seg = segment(pos);
+            if (seg == null)
+               break;                                    // AM: Reading past end of file; the rest of dst is left as-is
+            int off = (int) (pos % segsize);
+            int n = Math.min(dst.remaining(), seg.capacity() - off);
+            dst.put(dst.position(), seg, off, n);        // AM: Absolute bulk copy; the shared mapping's position is never touched
+            dst.position(dst.position() + n);
+            pos += n;
+         }
+      }
+      finally {
+         lock.readLock().unlock();
+      }
+   }
+
+   public void write(long pos, ByteBuffer src) throws IOException {
+      lock.readLock().lock();
+      try {
+         if (pos + src.remaining() > fc.size()) {
+            // AM: The write extends the file. Let the channel do it; the mapping catches up on the next access.
+            writeChannel(pos, src);
+            return;
+         }
+         while (src.hasRemaining()) {
+            MappedByteBuffer seg = segment(pos);
+            if (seg == null) {
+               writeChannel(pos, src);                   // AM: Truncated while segment() waited for the write lock
+               return;
+            }
+            int off = (int) (pos % segsize);
+            int n = Math.min(src.remaining(), seg.capacity() - off);
+            seg.put(off, src, src.position(), n);
+            src.position(src.position() + n);
+            if (syncWrites)
+               seg.force(off, n);
+            pos += n;
+         }
+      }
+      finally {
+         lock.readLock().unlock();
+      }
+   }
+
+   public long size() throws IOException {
+      return fc.size();
+   }
+
+   public void setSize(long newsize) throws IOException {
+      lock.writeLock().lock();
+      try {
+         if (newsize < fc.size())
+            unmapAll();                        // AM: Drop the mappings before the file shrinks underneath them; growing leaves them valid
+         raf.setLength(newsize);
+      }
+      finally {
+         lock.writeLock().unlock();
+      }
+   }
+
+   public void force() throws IOException {
+      lock.readLock().lock();
+      try {
+         for (MappedByteBuffer seg : segments)
+            if (seg != null)
+               seg.force();
+         fc.force(true);
+      }
+      finally {
+         lock.readLock().unlock();
+      }
+   }
+
+   public void close() throws IOException {
+      lock.writeLock().lock();
+      try {
+         unmapAll();
+         raf.close();
+      }
+      finally {
+         lock.writeLock().unlock();
+      }
+   }
+
+   private void writeChannel(long pos, ByteBuffer src) throws IOException {
+      long start = pos - src.position();
+      while (src.hasRemaining())
+         fc.write(src, start + src.position());
+      if (syncWrites)
+         fc.force(true);
+   }
+
+   // AM: Forces and unmaps every segment (see UNMAPPING). Called with the write lock held.
+   private void unmapAll() throws IOException {
+      MappedByteBuffer[] segs = segments;
+      segments = new MappedByteBuffer[0];
+      for (MappedByteBuffer seg : segs)
+         if (seg != null)
+            unmap(seg);
+   }
+
+   // AM: Called with the write lock held, once seg is no longer reachable from segments
+   private void unmap(MappedByteBuffer seg) {
+      seg.force();
+      if (INVOKE_CLEANER != null) {
+         try {
+            INVOKE_CLEANER.invoke(UNSAFE, seg);
+         }
+         catch (ReflectiveOperationException e) {
+            // AM: Left to the garbage collector
+         }
+      }
+   }
+
+   /* AM: Returns the mapping that covers pos, or null if pos is past the end of the file. Called with the read lock held.
+    *     A segment that is not mapped yet is mapped under this object's lock. A tail segment mapped before the file grew
+    *     must be unmapped when it is replaced, so that is done under the write lock, with no reader or writer using it.
+    */
+   private MappedByteBuffer segment(long pos) throws IOException {
+      int i = (int) (pos / segsize);
+      MappedByteBuffer seg = covering(i, pos);
+      if (seg != null)
+         return seg;
+      synchronized (this) {
+         seg = covering(i, pos);                       // AM: Another thread may have mapped it first
+         if (seg != null)
+            return seg;
+         MappedByteBuffer[] segs = segments;
+         if (i >= segs.length || segs[i] == null)
+            return map(i, pos);
+      }
+      lock.readLock().unlock();
+      lock.writeLock().lock();
+      try {
+         seg = covering(i, pos);
+         if (seg != null)
+            return seg;
+         MappedByteBuffer[] segs = segments;
+         MappedByteBuffer old = (i < segs.length) ? segs[i] : null;
+         seg = map(i, pos);
+         if (seg != null && old != null)
+            unmap(old);
+         return seg;
+      }
+      finally {
+         lock.readLock().lock();                       // AM: Downgrade, so seg can't be unmapped before the caller is done with it
+         lock.writeLock().unlock();
+      }
+   }
+
+   // AM: Returns the current mapping of segment i if it covers pos, else null
+   private MappedByteBuffer covering(int i, long pos) {
+      MappedByteBuffer[] segs = segments;
+      if (i < segs.length && segs[i] != null && pos - i * segsize < segs[i].capacity())
+         return segs[i];
+      return null;
+   }
+
+   // AM: Maps segment i up to the current end of the file and publishes it; returns null if pos is past the end
+   private MappedByteBuffer map(int i, long pos) throws IOException {
+      long start = i * segsize;
+      long len = Math.min(segsize, fc.size() - start);
+      if (pos >= start + len)
+         return null;
+      MappedByteBuffer seg = fc.map(FileChannel.MapMode.READ_WRITE, start, len);
+      MappedByteBuffer[] segs = segments;
+      MappedByteBuffer[] newsegs = Arrays.copyOf(segs, Math.max(segs.length, i + 1));
+      newsegs[i] = seg;
+      segments = newsegs;
+      return seg;
+   }
+}
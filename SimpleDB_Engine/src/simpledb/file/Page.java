@@ -17,6 +17,8 @@ import java.util.Date;     // AM: For Date objects
  * - A Page represents exactly one "Block" of data (e.g., 4KB) in RAM.
  * - The contents() method exposes the underlying ByteBuffer for direct I/O 
  * operations by the FileMgr.
+ * - Buffer and temporary block-sized Pages come from the FileMgr's PageArena (off-heap slabs);
+ * Page(byte[]) wraps a heap array and is used for log records.
  * * 3. SAFETY & BOUNDARIES
  * - It prevents buffer overflows by checking offsets against the page capacity.
  * - It handles string encoding (ASCII/UTF-8) to ensure text is stored consistently.
@@ -43,6 +45,11 @@ public class Page {
       bb = ByteBuffer.wrap(b);   // AM: Creates a "view" or "window" directly over the Byte array in memory
    }
 
+   // AM: Used by PageArena; bb is one block-sized slice of a direct slab
+   Page(ByteBuffer bb) {
+      this.bb = bb;
+   }
+
    public int getInt(int offset) {
       return bb.getInt(offset);
    }
@@ -55,11 +62,11 @@ public class Page {
       bb.putInt(offset, n);
    }
 
+   // AM: Absolute reads and writes (the cursor never moves), so threads can use different parts of one Page at once
    public byte[] getBytes(int offset) {
-      bb.position(offset);          // AM: Positions Byte Buffer at offset of integer length of string
-      int length = bb.getInt();     // AM: Retrieves string length integer and advances Byte Buffer cursor by 4
-      byte[] b = new byte[length];  // AM: Creates byte array to store string size
-      bb.get(b);                    // AM: Cursor is now sitting at the start of string contained in Byte Buffer and stores these bytes inside buffer array (ie. "b")
+      int length = bb.getInt(offset);              // AM: Retrieves string length integer stored at offset
+      byte[] b = new byte[length];                 // AM: Creates byte array to store string size
+      bb.get(offset + Integer.BYTES, b);           // AM: The bytes follow the length; stores them inside buffer array (ie. "b")
       return b;
    }
 
@@ -69,9 +76,8 @@ public class Page {
       if(offset + Integer.BYTES + b.length > bb.capacity()){
          throw new RuntimeException("Page buffer exceeded for byte array at offset " + offset);
       }
-      bb.position(offset); // AM: Move cursor to the start
-      bb.putInt(b.length); // AM: Write 4 bytes (cursor moves 4)
-      bb.put(b);           // AM: Write string bytes (cursor moves n)
+      bb.putInt(offset, b.length);                 // AM: Write the 4-byte length at the start
+      bb.put(offset + Integer.BYTES, b);           // AM: Write string bytes right after it
    }
    
    public String getString(int offset) {
@@ -133,6 +139,12 @@ public class Page {
       return new Date(longVal);
    }
 
+   // AM: Copies the whole of src into this page, e.g. to write a snapshot of a page that others keep modifying.
+   //     Absolute copy, so neither page's cursor moves.
+   public void copyFrom(Page src) {
+      bb.put(0, src.bb, 0, bb.capacity());
+   }
+
    // a package private method, needed by FileMgr
    ByteBuffer contents() {
       bb.position(0);
@@ -0,0 +1,115 @@
+package simpledb.file;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * AM - Hybrid personal & AI write-up architecture
+ * The PageArena class is the "Page Frame Allocator."
+ * It hands out block-sized Pages carved out of large direct (off-heap) slabs.
+ * * ARCHITECTURE OVERVIEW:
+ * * 1. SLABS
+ * - Memory is allocated with ByteBuffer.allocateDirect() in slabs of many pages (at most MAX_SLAB_BYTES each)
+ * and each slab is sliced into block-sized Pages. A buffer pool of many GB is then a handful of
+ * native allocations that the garbage collector never has to scan or copy.
+ * - Because the Pages are direct, FileMgr's channel I/O goes straight into them without the JDK
+ * copying through a temporary direct buffer.
+ * * 2. BORROW / RELEASE
+ * - reserve(): carves slabs up front (BufferMgr reserves its whole pool this way).
+ * - borrow(): takes a free Page, carving a small slab if none is left.
+ * - release(): zeroes the Page and puts it back on the free list.
+ * - trim(): drops the slabs whose pages are all free, so the native memory can be reclaimed
+ * (e.g. after BufferMgr.resize() shrank the pool). Other slabs stay, even if partly free.
+ * - A borrowed Page always reads as all zeros.
+ * * 3. OWNERSHIP
+ * - Each FileMgr owns one arena (pageArena()), since it knows the block size.
+ * - Only Pages that came from borrow() may be released, and only once.
+ */
+public class PageArena {
+   private static final int MAX_SLAB_BYTES = 64 * 1024 * 1024;   // AM: Upper bound of one native allocation
+   private static final int MIN_SLAB_PAGES = 16;                 // AM: Slab carved by borrow() when the free list is empty
+   private int blocksize;
+   private byte[] zeros;
+   private Deque<Page> free = new ArrayDeque<>();
+   private Map<Page,int[]> slabOf = new IdentityHashMap<>();   // AM: Page -> its slab's {pages, free pages}
+   private long reservedBytes = 0;
+
+   public PageArena(int blocksize) {
+      this.blocksize = blocksize;
+      zeros = new byte[blocksize];
+   }
+
+   /**
+    * Adds npages free Pages to the arena.
+    * @param npages the number of pages to carve
+    */
+   public synchronized void reserve(int npages) {
+      int perSlab = Math.max(1, MAX_SLAB_BYTES / blocksize);
+      while (npages > 0) {
+         int n = Math.min(npages, perSlab);
+         ByteBuffer slab = ByteBuffer.allocateDirect(n * blocksize);
+         int[] counts = {n, n};
+         for (int i=0; i<n; i++) {
+            Page p = new Page(slab.slice(i * blocksize, blocksize));   // AM: Each slice is an independent block-sized view of the slab
+            free.add(p);
+            slabOf.put(p, counts);
+         }
+         reservedBytes += (long) n * blocksize;
+         npages -= n;
+      }
+   }
+
+   /**
+    * Takes a zeroed Page from the arena.
+    * @return a Page of the arena's block size
+    */
+   public synchronized Page borrow() {
+      if (free.isEmpty())
+         reserve(MIN_SLAB_PAGES);
+      Page p = free.poll();
+      slabOf.get(p)[1]--;
+      return p;
+   }
+
+   /**
+    * Returns a borrowed Page to the arena.
+    * @param p a Page obtained from borrow()
+    */
+   public synchronized void release(Page p) {
+      p.contents().put(0, zeros);   // AM: Absolute bulk put; the next borrower gets a clean page
+      free.push(p);                 // AM: LIFO, so a recently used (cache-warm) frame is handed out next
+      slabOf.get(p)[1]++;
+   }
+
+   /**
+    * Forgets the slabs none of whose pages are borrowed.
+    * A slab's memory is freed once the garbage collector finds it unreachable.
+    * @return the number of bytes dropped
+    */
+   public synchronized long trim() {
+      long dropped = 0;
+      for (Iterator<Page> it = free.iterator(); it.hasNext(); ) {
+         Page p = it.next();
+         int[] counts = slabOf.get(p);
+         if (counts[1] == counts[0]) {
+            it.remove();
+            slabOf.remove(p);
+            dropped += blocksize;
+         }
+      }
+      reservedBytes -= dropped;
+      return dropped;
+   }
+
+   public synchronized int freePages() {
+      return free.size();
+   }
+
+   public synchronized long reservedBytes() {
+      return reservedBytes;
+   }
+}
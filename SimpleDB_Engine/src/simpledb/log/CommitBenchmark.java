@@ -0,0 +1,63 @@
+package simpledb.log;
+
+import simpledb.server.SimpleDB;
+
+/**
+ * AM: Commit-throughput benchmark for LogMgr.
+ * Every client repeatedly does what RecoveryMgr.commit() does to the log: it appends a
+ * commit-sized record and flushes the log up to it. Three modes are measured for 1..MAX_CLIENTS clients:
+ *    per-commit -> group commit off; every commit forces the log itself
+ *    group      -> group commit with no delay; commits that arrive during a force share the next one
+ *    delayed    -> group commit whose leader waits delayMicros for more commits to join
+ * Forces/commit shows how many commits each force of the log file covered.
+ * Usage: java simpledb.log.CommitBenchmark [millisPerRun] [delayMicros]
+ */
+public class CommitBenchmark {
+   private static final int MAX_CLIENTS = 64;
+
+   public static void main(String[] args) throws Exception {
+      long millis = (args.length > 0) ? Long.parseLong(args[0]) : 1000;
+      long delay = (args.length > 1) ? Long.parseLong(args[1]) : 100;
+      SimpleDB db = new SimpleDB("commitbenchmark", 4096, 16);
+      LogMgr lm = db.logMgr();
+
+      System.out.println("clients  per-commit(commits/s)  group(commits/s)  delayed(commits/s)  forces/commit(per-commit, group, delayed)");
+      for (int clients=1; clients<=MAX_CLIENTS; clients*=2) {
+         double[] single = run(db, lm, clients, millis, false, 0);
+         double[] group = run(db, lm, clients, millis, true, 0);
+         double[] delayed = run(db, lm, clients, millis, true, delay);
+         System.out.printf("%7d  %21.0f  %16.0f  %18.0f  %.2f, %.2f, %.2f%n", clients, single[0], group[0], delayed[0],
+               single[1], group[1], delayed[1]);
+      }
+   }
+
+   // AM: Returns commits per second and forces per commit
+   private static double[] run(SimpleDB db, LogMgr lm, int clients, long millis, boolean group, long delayMicros) throws InterruptedException {
+      lm.setGroupCommit(group);
+      lm.setGroupCommitDelay(delayMicros);
+      long forcesBefore = db.fileMgr().fileStats(SimpleDB.LOG_FILE).getForces();
+      long[] counts = new long[clients];
+      long deadline = System.currentTimeMillis() + millis;
+      Thread[] workers = new Thread[clients];
+      for (int c=0; c<clients; c++) {
+         final int id = c;
+         workers[c] = new Thread(() -> {
+            byte[] rec = new byte[8];   // AM: The size of a CommitRecord: its type and the transaction number
+            long n = 0;
+            while (System.currentTimeMillis() < deadline) {
+               lm.flush(lm.append(rec));
+               n++;
+            }
+            counts[id] = n;
+         });
+         workers[c].start();
+      }
+      long total = 0;
+      for (int c=0; c<clients; c++) {
+         workers[c].join();
+         total += counts[c];
+      }
+      long forces = db.fileMgr().fileStats(SimpleDB.LOG_FILE).getForces() - forcesBefore;
+      return new double[] { total * 1000.0 / millis, (double) forces / Math.max(1, total) };
+   }
+}
@@ -0,0 +1,62 @@
+package simpledb.log;
+
+import simpledb.server.SimpleDB;
+
+/**
+ * AM: Multi-threaded append benchmark for LogMgr.
+ * Every thread repeatedly appends a record the size of a SetIntRecord, without flushing,
+ * which is what concurrent updates ask of the log. Two modes are measured for 1..MAX_THREADS threads:
+ *    serialized -> every append goes through one shared monitor, which is how LogMgr
+ *                  behaved when append() was synchronized
+ *    lock-free  -> LogMgr as is (space reserved with a CAS, records copied concurrently)
+ * Usage: java simpledb.log.LogAppendBenchmark [millisPerRun]
+ */
+public class LogAppendBenchmark {
+   private static final int MAX_THREADS = 32;
+   private static final int RECORD_SIZE = 36;   // AM: Type, txnum, filename "bench.tbl", block number, offset and value
+
+   public static void main(String[] args) throws Exception {
+      long millis = (args.length > 0) ? Long.parseLong(args[0]) : 1000;
+      SimpleDB db = new SimpleDB("logappendbenchmark", 4096, 16);
+      LogMgr lm = db.logMgr();
+
+      System.out.println("threads  serialized(appends/s)  lock-free(appends/s)  speedup");
+      for (int threads=1; threads<=MAX_THREADS; threads*=2) {
+         double serial = run(lm, threads, millis, true);
+         double lockfree = run(lm, threads, millis, false);
+         System.out.printf("%7d  %21.0f  %20.0f  %7.2f%n", threads, serial, lockfree, lockfree / serial);
+      }
+   }
+
+   private static double run(LogMgr lm, int threads, long millis, boolean serialized) throws InterruptedException {
+      Object globalLock = new Object();   // AM: Stands in for the old LogMgr monitor
+      long[] counts = new long[threads];
+      long deadline = System.currentTimeMillis() + millis;
+      Thread[] workers = new Thread[threads];
+      for (int t=0; t<threads; t++) {
+         final int id = t;
+         workers[t] = new Thread(() -> {
+            byte[] rec = new byte[RECORD_SIZE];
+            long n = 0;
+            while (System.currentTimeMillis() < deadline) {
+               if (serialized) {
+                  synchronized (globalLock) {
+                     lm.append(rec);
+                  }
+               }
+               else
+                  lm.append(rec);
+               n++;
+            }
+            counts[id] = n;
+         });
+         workers[t].start();
+      }
+      long total = 0;
+      for (int t=0; t<threads; t++) {
+         workers[t].join();
+         total += counts[t];
+      }
+      return total * 1000.0 / millis;
+   }
+}
@@ -2,7 +2,6 @@ package simpledb.log;
 
 import java.util.Iterator;
 import simpledb.file.*;
-import simpledb.buffer.*;     // AM: Imported to utilize Buffer instead of generating local Page inside constructor
 
 /**
  * A class that provides the ability to move through the
@@ -13,6 +12,8 @@ import simpledb.buffer.*;     // AM: Imported to utilize Buffer instead of gener
 
 /**
  * AM: LogIterator reads exactly from the physical disk file. The log must be flushed prior to being read in.
+ *     Since the log has pages of its own (see LogMgr), blocks are read into a private Page again rather than
+ *     pinned in the BufferMgr, so reading the log during recovery doesn't use up the data pool either.
  */
 class LogIterator implements Iterator<byte[]> {
    private FileMgr fm;
@@ -21,9 +22,6 @@ class LogIterator implements Iterator<byte[]> {
    private int currentpos;
    private int boundary;
 
-   private BufferMgr bm;      // AM: Added to utilize Buffer instead of local Page for Log
-   private Buffer logBuffer;  // AM: Maintains Log Buffer Page inside BufferMgr
-
    /**
     * Creates an iterator for the records in the log file,
     * positioned after the last log record.
@@ -37,11 +35,11 @@ class LogIterator implements Iterator<byte[]> {
       moveToBlock(blk);
    }
    */
-   public LogIterator(FileMgr fm, BlockId blk, BufferMgr bm){
+   public LogIterator(FileMgr fm, BlockId blk){
       this.fm = fm;
       this.blk = blk;
-      this.bm = bm;
-      moveToBlock(blk);    // AM: Performs pin/unpin logic and passes Log content to Buffer
+      p = new Page(fm.blockSize());
+      moveToBlock(blk);
    }
 
    /**
@@ -61,16 +59,11 @@ class LogIterator implements Iterator<byte[]> {
    }
    */
    public boolean hasNext(){
-      // AM: Logic to check if more records exist
-      boolean hasMore = currentpos < fm.blockSize() || blk.number() > 0;
-
-      // AM: If no more records exist, unpin the final Buffer
-      if(!hasMore && logBuffer != null){
-         bm.unpin(logBuffer);
-         logBuffer = null;    // AM: Prevent double unpinning
+      while (currentpos == fm.blockSize() && blk.number() > 0) {   // AM: Skips empty blocks, so next() always has a record
+         blk = new BlockId(blk.fileName(), blk.number()-1);
+         moveToBlock(blk);
       }
-
-      return hasMore;
+      return currentpos < fm.blockSize();
    }
 
    /**
@@ -81,10 +74,7 @@ class LogIterator implements Iterator<byte[]> {
     * @return the next earliest log record
     */
    public byte[] next() {
-      if (currentpos == fm.blockSize()) {
-         blk = new BlockId(blk.fileName(), blk.number()-1);
-         moveToBlock(blk);
-      }
+      hasNext();                                // AM: Moves back past the current block and any empty ones before it
       byte[] rec = p.getBytes(currentpos);      // AM: Returns Byte Array containing record
       currentpos += Integer.BYTES + rec.length; // AM: Move to position to next record by accounting for integer representation of record size and the records length
       return rec;
@@ -103,19 +93,10 @@ class LogIterator implements Iterator<byte[]> {
    }
     */
    private void moveToBlock(BlockId blk){
-      // AM: 1. Unpin the previous buffer (if any)
-      if(logBuffer != null){
-         bm.unpin(logBuffer);
-      }
-
-      // AM: 2. Pin the new block
-      logBuffer = bm.pin(blk);
-
-      // AM: 3. Get the Page reference
-      this.p = logBuffer.contents();
-
-      // AM: 4. Set pointers
-      boundary = p.getInt(0);
-      currentpos = boundary;
+      fm.read(blk, p);               // AM: Reads Log Block from File into the iterator's own Page
+      boundary = p.getInt(0);        // AM: Retrieves pointer to last record written to this Block
+      if (boundary == 0)
+         boundary = fm.blockSize();  // AM: A block that was never written (left all zeros by a crash) holds no records
+      currentpos = boundary;         // AM: Moves iterator to end of the valid data so it can work backwards
    }
 }
@@ -1,14 +1,19 @@
 package simpledb.log;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import simpledb.file.*;
-import simpledb.buffer.*;  // AM: imports BufferMgr and Buffer classes
 
 /**
- * The log manager, which is responsible for 
- * writing log records into a log file. The tail of 
+ * The log manager, which is responsible for
+ * writing log records into a log file. The tail of
  * the log is kept in a bytebuffer, which is flushed
- * to disk when needed. 
+ * to disk when needed.
  * @author Edward Sciore
  */
 /**
@@ -23,26 +28,122 @@ import simpledb.buffer.*;  // AM: imports BufferMgr and Buffer classes
  * - Records are written into the buffer from Right-to-Left (Backwards).
  * - Why? Because RecoveryMgr always reads the log Backwards (from most recent to oldest).
  * - Storing them in reverse order makes the iterator logic incredibly fast and simple.
- * * 3. MEMORY MANAGEMENT (Integration with BufferMgr)
- * - Instead of managing its own private memory array, LogMgr (post-Exercise 4.11)
- * now uses the system's BufferMgr to pin a specific "Log Page".
- * - This ensures the Log plays nicely with the global memory pool.
+ * * 3. MEMORY MANAGEMENT (Private log pages)
+ * - Exercise 4.11 kept the current log block pinned in the BufferMgr; the log now has a small ring of
+ * pages of its own (3 by default), so log space never competes with data pages in the pool.
+ * - Records are appended to the current page. When it fills up, it is handed to a background LogWriter
+ * thread and appending continues in the next page of the ring at once, while the full one is written.
+ * An appender only waits if every other page of the ring is still waiting to be written.
+ * - Pages are written in log order (under writeLock), so a block on disk never goes back to an older version.
+ * * 3b. LOCK-FREE APPEND (Space reservation)
+ * - append() takes no lock. An appender reserves its bytes with one compare-and-set on the page's
+ * space word, which packs the number of records reserved with the boundary. The CAS hands out both the
+ * position and the LSN, so LSN order is always log order. The bytes are then copied concurrently into
+ * disjoint parts of the page.
+ * - A copied record marks itself in the page's copied array, and the completion watermark (the last record
+ * such that it and all before it are copied) is advanced past every marked record. A flush writes the
+ * page only up to the watermark, with the watermark's boundary in the page header.
+ * - Only the appender whose record doesn't fit takes the monitor: it seals the page (no more reservations),
+ * waits for the copies still in flight, and moves the log on to the next page.
  * * 4. LOG SEQUENCE NUMBERS (LSN)
- * - Every log record is assigned a unique, increasing integer (LSN).
+ * - Every log record is assigned a unique, increasing long (LSN), which is also its address in the log:
+ * (block number << 32) | (bytes of the block in use once the record is in, i.e. blocksize - record position).
+ * - Blocks are appended in order and filled right to left, so LSN order is log order, and comparing an LSN with
+ * lastSavedLSN still tells whether a record is on disk (a Buffer's page LSN against the log, see Buffer.flush()).
+ * - read(lsn) fetches a record directly, without scanning the log; RecoveryMgr rolls a transaction back by
+ * reading just its own update records. read(lsn, p, load) reuses the caller's page, so consecutive records
+ * of the same block cost one block read.
+ * - There is a single log file, so the file is not part of the LSN.
  * - This LSN serves as a timestamp and a pointer used by BufferMgr to ensure
  * "Write-Ahead Logging" (a log record must reach disk before the data page does).
+ * * 5. GROUP COMMIT (Leader/follower)
+ * - Forcing the log is the slowest step of a commit, and concurrent committers mostly want the same block forced.
+ * - flush(lsn) lets one thread at a time be the leader: it (optionally) waits the group commit delay so that more
+ * commits can append their records, then writes and forces the log once, up to the latest LSN.
+ * - Committers that arrive meanwhile are followers: they wait until a force covers their LSN, becoming the next
+ * leader only if it doesn't. N concurrent commits then cost a few forces instead of N.
+ * - The leader writes a copy of the current page, so appenders keep adding records to it during the force.
+ * - setGroupCommit(false) restores one force per flush() call.
  */
 public class LogMgr {
+   public static final int DEFAULT_LOG_PAGES = 3;
    private FileMgr fm;
    private String logfile;
-   private Page logpage;         // AM: logBuffer supercedes this variable since BufferMgr now handles Log's (see 4.11 Programming Exercise).
-   private BlockId currentblk;
-   private int latestLSN = 0;    // AM: LSN = Log Sequence Number
-   private int lastSavedLSN = 0;
+   private LogPage[] ring;       // AM: The log's private pages, used in turn
+   private int blocksize;
+   private volatile int current; // AM: Index of the page being appended to; changed under this, read without it
+   private int oldestFull = 0;   // AM: Index of the oldest page waiting to be written; pages fill up in ring order. Guarded by this.
+   private boolean switching = false;   // AM: True while an appender waits for the next page; others wait for it. Guarded by this.
+   private volatile boolean closed = false;   // AM: Set by close(); changed under this
+   private volatile long lastSavedLSN;      // AM: LSN = Log Sequence Number; the last record forced to disk
+   private volatile long lastWrittenLSN;    // AM: The last record written to the file, forced or not
+   private static final long SEALED = 1L << 31;     // AM: Set in a page's space word once it takes no more records
 
-   // AM: Exercise 4.11 - Handle LogMgr in BufferMgr
-   private BufferMgr bm;         // AM: Handles BufferMgr
-   private Buffer logBuffer;     // AM: Handles currently pinned buffer for the log.
+   private final Object writeLock = new Object();   // AM: Held while log pages are written, so they reach the file in log order
+   private Page snapshot;                           // AM: Copy of the current page written by writeOut(). Guarded by writeLock.
+   private LogWriter writer;
+
+   // AM: Group commit. Guarded by groupLock; a thread that has to wait for a force waits on it.
+   private final Object groupLock = new Object();
+   private boolean forcing = false;                   // AM: True while a leader is writing and forcing the log
+   private volatile boolean groupCommit = true;
+   private volatile long groupCommitDelayNanos = 0;   // AM: How long a leader lets more commits join its batch
+
+   // AM: One page of the ring and the log block it holds
+   private static class LogPage {
+      final Page page;
+      final AtomicLong space = new AtomicLong();       // AM: (records reserved << 32) | boundary, plus SEALED
+      final AtomicLong completed = new AtomicLong();   // AM: The completion watermark, packed the same way
+      final AtomicIntegerArray copied;                 // AM: Per record number (1..): its position + 1 once copied, else 0
+      BlockId blk;
+      boolean full = false;      // AM: Finished, and not yet written; can't be reused until it is. Guarded by LogMgr.this.
+
+      LogPage(Page page, int blocksize) {
+         this.page = page;
+         copied = new AtomicIntegerArray(blocksize / Integer.BYTES + 1);   // AM: A record takes at least its 4-byte length
+      }
+
+      // AM: Starts the page afresh with no records, its free space ending at boundary
+      void reset(int boundary) {
+         int used = count(completed.get());
+         for (int i = 1; i <= used; i++)
+            copied.setPlain(i, 0);        // AM: Published by the volatile writes below
+         completed.set(pack(0, boundary));
+         space.set(pack(0, boundary));    // AM: Last: reopens the page to appenders
+      }
+   }
+
+   private static long pack(int count, int boundary) {
+      return ((long) count << 32) | boundary;
+   }
+
+   private static int count(long word) {
+      return (int) (word >>> 32);
+   }
+
+   private static int boundary(long word) {
+      return (int) (word & (SEALED - 1));
+   }
+
+   // AM: The LSN of the record at position recpos of the log block blknum
+   private long lsn(int blknum, int recpos) {
+      return ((long) blknum << 32) | (blocksize - recpos);
+   }
+
+   /**
+    * Returns the number of the log block that
+    * holds the record with the specified LSN.
+    * @param lsn the LSN of a log record
+    * @return the block number
+    */
+   public static int blockNumber(long lsn) {
+      return (int) (lsn >>> 32);
+   }
+
+   // AM: The position of the record with the specified LSN within its block
+   private int position(long lsn) {
+      return blocksize - (int) lsn;
+   }
 
    /**
     * Creates the manager for the specified log file.
@@ -51,25 +152,46 @@ public class LogMgr {
     * @param FileMgr the file manager
     * @param logfile the name of the log file
     */
-
    public LogMgr(FileMgr fm, String logfile) {
+      this(fm, logfile, DEFAULT_LOG_PAGES);
+   }
+
+   /**
+    * Creates the manager with a ring of the specified
+    * number of log pages.
+    * @param FileMgr the file manager
+    * @param logfile the name of the log file
+    * @param numpages the number of log pages; 2 is double buffering, 3 triple buffering
+    */
+   public LogMgr(FileMgr fm, String logfile, int numpages) {
       this.fm = fm;
       this.logfile = logfile;
+      this.blocksize = fm.blockSize();
+      if (numpages < 1)
+         throw new IllegalArgumentException("a log needs at least one page");
+      ring = new LogPage[numpages];
+      for (int i = 0; i < numpages; i++)
+         ring[i] = new LogPage(new Page(blocksize), blocksize);
+      snapshot = new Page(fm.blockSize());
+      current = 0;
 
+      LogPage lp = ring[current];
       int logsize = fm.length(logfile);
-      if (logsize == 0)
-         currentblk = appendNewBlock();
+      if (logsize == 0) {
+         lp.blk = fm.append(logfile);
+         lp.page.setInt(0, blocksize);
+         fm.write(lp.blk, lp.page);          // AM: An empty log still has a valid last block on disk
+      }
       else {
-         currentblk = new BlockId(logfile, logsize-1);
+         lp.blk = new BlockId(logfile, logsize-1);
+         fm.read(lp.blk, lp.page);           // AM: Keep appending to the last block
+         if (lp.page.getInt(0) == 0)
+            lp.page.setInt(0, blocksize);    // AM: Never written (preallocated, or reserved before a crash): an empty block
       }
-   }
-
-   /* AM: Exercise 4.11
-    * Finds a spot in the Buffer Pool, loads the data, and returns the Buffer object to the LogMgr.
-    */
-   public void setBufferMgr(BufferMgr bm){
-      this.bm = bm;
-      logBuffer = bm.pin(currentblk);     // AM: Pinned Buffer object referencing file block
+      lp.reset(lp.page.getInt(0));
+      lastSavedLSN = lastWrittenLSN = lsn(lp.blk.number(), lp.page.getInt(0));   // AM: Everything already in the file
+      writer = new LogWriter(this);
+      writer.start();
    }
 
    /**
@@ -78,19 +200,111 @@ public class LogMgr {
     * All earlier log records will also be written to disk.
     * @param lsn the LSN of a log record
     */
-   public void flush(int lsn) {
-      if (lsn >= lastSavedLSN)
-         flush();
+   public void flush(long lsn) {
+      if (lsn <= lastSavedLSN)
+         return;                          // AM: Already on disk; e.g. written by the force of another commit
+      if (!groupCommit) {
+         writeOut(true);
+         return;
+      }
+      synchronized (groupLock) {
+         boolean interrupted = false;
+         while (forcing) {                // AM: Follower: a leader is forcing; wait for it, then check again
+            try {
+               groupLock.wait();
+            }
+            catch (InterruptedException e) {
+               interrupted = true;        // AM: A commit can't give up half-way; keep waiting and restore the flag
+            }
+            if (lsn <= lastSavedLSN)
+               break;
+         }
+         if (interrupted)
+            Thread.currentThread().interrupt();
+         if (lsn <= lastSavedLSN)
+            return;
+         forcing = true;                  // AM: Leader
+      }
+      try {
+         long delay = groupCommitDelayNanos;
+         if (delay > 0)
+            LockSupport.parkNanos(delay); // AM: Lets other committers append their records before the force
+         if (lsn > lastSavedLSN)
+            writeOut(true);               // AM: Covers every record appended so far, not just lsn
+      }
+      finally {
+         synchronized (groupLock) {
+            forcing = false;
+            groupLock.notifyAll();
+         }
+      }
+   }
+
+   /**
+    * Turns group commit on (the default) or off.
+    * Without it, every flush() that finds its record
+    * not yet on disk forces the log itself.
+    * @param on whether flushes are grouped
+    */
+   public void setGroupCommit(boolean on) {
+      groupCommit = on;
    }
 
+   /**
+    * Sets how long the leader of a group commit waits
+    * for more commits to join before forcing the log.
+    * A small delay trades a little latency for fewer
+    * forces when many transactions commit at once.
+    * @param micros the delay in microseconds; 0 = no delay
+    */
+   public void setGroupCommitDelay(long micros) {
+      groupCommitDelayNanos = TimeUnit.MICROSECONDS.toNanos(micros);
+   }
+
+   // AM: Reads the log from the file, after writing out everything appended so far
    public Iterator<byte[]> iterator(){
-      flush();
-      return new LogIterator(fm, currentblk, bm);
+      return new LogIterator(fm, writeOut(true));
+   }
+
+   /**
+    * Returns the log record with the specified LSN,
+    * read directly from its block. A record not yet
+    * in the log file is written out first (not forced).
+    * @param lsn the LSN returned by append()
+    * @return the bytes of the record
+    */
+   public byte[] read(long lsn) {
+      return read(lsn, newPage(), true);
+   }
+
+   /**
+    * Returns the log record with the specified LSN,
+    * using the caller's page. The record's block is only
+    * read into the page if load is true; otherwise the page
+    * must already hold that block (read after the record
+    * was appended).
+    * @param lsn the LSN returned by append()
+    * @param p a page from newPage()
+    * @param load whether the record's block must be read into p
+    * @return the bytes of the record
+    */
+   public byte[] read(long lsn, Page p, boolean load) {
+      if (load) {
+         if (lsn > lastWrittenLSN)
+            writeOut(false);
+         fm.read(new BlockId(logfile, blockNumber(lsn)), p);
+      }
+      return p.getBytes(position(lsn));
+   }
+
+   // AM: A heap page the size of a log block; reading a record mustn't take a frame or an arena slot
+   public Page newPage() {
+      return new Page(new byte[blocksize]);
    }
 
    /**
-    * Appends a log record to the log buffer. 
-    * The record consists of an arbitrary array of bytes. 
+    * Appends a log record to the log buffer.
+    * The record consists of an arbitrary array of bytes.
     * Log records are written right to left in the buffer.
     * The size of the record is written before the bytes.
     * The beginning of the buffer contains the location
@@ -99,13 +313,11 @@ public class LogMgr {
     * them in reverse order.
     * @param logrec a byte buffer containing the bytes.
     * @return the LSN of the final value
+    * @throws IllegalStateException if the log has been closed
     */
-   public synchronized int append(byte[] logrec) {      
-      /* AM: Exercise 4.11 */
-      // AM: 1. Access the Page via the Buffer
-      Page p = logBuffer.contents();       // AM: Return reference to Log's Buffer Page
-
-      int boundary = p.getInt(0);   // AM: Returns remaining space available in Page
+   public long append(byte[] logrec) {
+      if (closed)
+         throw new IllegalStateException("log " + logfile + " is closed");
       int recsize = logrec.length;         // AM: Returns Log record size
       int bytesneeded = recsize + Integer.BYTES; // AM: Total bytes needed to store record (i.e. record size + length of record) [eg. A string of "abc" & integer "101" will occupy 7 bytes and 4 bytes to record length for a total of 11 bytes to store the record]
                                                    /** AM: [Blob Len (4)] [String Len (4)] [String "abc" (3)] [Integer Val (4)]
@@ -113,63 +325,219 @@ public class LogMgr {
                                                                   |                                  |
                                                             Added by LogMgr              The "record" created in LogTest
                                                     */
+      if (blocksize - bytesneeded < Integer.BYTES)
+         throw new IllegalArgumentException("log record of " + recsize + " bytes does not fit in a block");
 
-      // AM: Checks if current Log Buffer Page has enough room; if not, then a new Block is appended to the existing Log for additional space
-      if(boundary - bytesneeded < Integer.BYTES){
-         flush();
-         currentblk = appendNewBlock();
+      while (true) {
+         LogPage lp = ring[current];
+         long space = lp.space.get();
+         int boundary = boundary(space);   // AM: Start of the most recently reserved record
 
-         // AM: Switch buffers
-         bm.unpin(logBuffer);             // AM: Release the full block
-         logBuffer = bm.pin(currentblk);  // AM: Pin the new empty block
+         // AM: Checks if current Log Page has enough room; if not, the log moves on to the next page of the ring and a new Block
+         if ((space & SEALED) != 0 || boundary - bytesneeded < Integer.BYTES) {
+            nextPage(lp, bytesneeded);
+            continue;
+         }
 
-         p = logBuffer.contents();        // AM: Update the local page reference
-         boundary = p.getInt(0);
+         /** AM: Visualizating the Block of a Log
+          *    Offset 0       : [ 385 ]  <-- Header: Points to start of the most recent record
+               Offset 4 - 384 : [ 0 0 0 ... ] (Empty Space)
+               Offset 385     : [ 11 ]   <-- LOG MGR HEADER: Total size of the blob
+               Offset 389     : [ 3 ]    <-- USER DATA: Length of string "abc"
+               Offset 393     : [ a b c ] <-- USER DATA: The string
+               Offset 396     : [ 101 ]  <-- USER DATA: The integer
+         */
+         // AM: Log record is populated from EOF to beginning (in reverse). The header at offset "0" is only written
+         //     when the page is sealed or copied by a flush, from the completion watermark.
+         int recpos = boundary - bytesneeded;   // AM: Store position in Page where new record will be added
+         int count = count(space) + 1;
+         if (!lp.space.compareAndSet(space, pack(count, recpos)))
+            continue;                           // AM: Another appender reserved first; try again after it
+         long lsn = lsn(lp.blk.number(), recpos);   // AM: Stable: the page can't be reused before this record is copied
+         lp.page.setBytes(recpos, logrec);      // AM: Set Page by adding new Log Record at the reserved position
+         lp.copied.set(count, recpos + 1);
+         advanceWatermark(lp);
+         return lsn;
       }
+   }
+
+   // AM: Moves the page's completion watermark past every record that has been copied, in order
+   private static void advanceWatermark(LogPage lp) {
+      while (true) {
+         long done = lp.completed.get();
+         int next = count(done) + 1;
+         if (next >= lp.copied.length())
+            return;
+         int pos = lp.copied.get(next);
+         if (pos == 0)
+            return;                             // AM: Still being copied; its appender advances the watermark when done
+         lp.completed.compareAndSet(done, pack(next, pos - 1));
+      }
+   }
 
-      /** AM: Visualizating the Block of a Log
-       *    Offset 0       : [ 385 ]  <-- Header: Points to start of the most recent record
-            Offset 4 - 384 : [ 0 0 0 ... ] (Empty Space)
-            Offset 385     : [ 11 ]   <-- LOG MGR HEADER: Total size of the blob
-            Offset 389     : [ 3 ]    <-- USER DATA: Length of string "abc"
-            Offset 393     : [ a b c ] <-- USER DATA: The string
-            Offset 396     : [ 101 ]  <-- USER DATA: The integer
-      */
-      // AM: Log record is populated from EOF to beginning (in reverse). Offset "0" maintains Block size to track remaining room available in Page.
-      int recpos = boundary - bytesneeded;   // AM: Store position in Page where new record will be added
-      p.setBytes(recpos, logrec);            // AM: Set Page by adding new Log Record at specified position
-      p.setInt(0, recpos);           // AM: Update Page's record position to reflect new starting position
-      latestLSN += 1;                        // AM: Update Log Sequence Number show a new log record has been added
-      
-      return latestLSN;
+   // AM: Waits until the first count records of the page have been copied. Copies take a moment, so yielding suffices.
+   private static long awaitCopies(LogPage lp, int count) {
+      long done;
+      while (count(done = lp.completed.get()) < count)
+         Thread.yield();
+      return done;
    }
 
    /**
-    * Initialize the bytebuffer and append it to the log file.
+    * Stops the log writer, after writing out every record
+    * appended so far. Called when the database shuts down;
+    * later appends throw an IllegalStateException.
     */
+   public void close() {
+      synchronized (this) {
+         closed = true;
+         notifyAll();                       // AM: An appender waiting for a free page gives up
+      }
+      writeOut(true);
+      writer.shutdown();
+   }
+
   /**
-   * AM: Update the Page via the Buffer.
-   *     If Block is full then a new Block will be created to handle Block and written to Disk.
-   *     This Block is then pinned in the BufferMgr (during append()) and the BlockId is returned.
+   * AM: Called by an appender whose record doesn't fit in page lp. Seals lp, waits for the records being copied
+   *     into it, hands it to the log writer and moves on to the next page of the ring, which starts a new Block
+   *     at the end of the log file. Waits only if that page hasn't been written yet.
+   *     Returns at once if another appender has already moved on, or if the record fits after all.
    */
-   private BlockId appendNewBlock(){
-      BlockId blk = fm.append(logfile);     // AM: Generates a BlockId reference to a File.
+   private synchronized void nextPage(LogPage lp, int bytesneeded) {
+      awaitSwitch();
+      if (closed)
+         throw new IllegalStateException("log " + logfile + " is closed");   // AM: The writer has stopped; no page would free up
+      if (ring[current] != lp)
+         return;
+      long space;
+      do {
+         space = lp.space.get();
+         if (boundary(space) - bytesneeded >= Integer.BYTES)
+            return;                         // AM: Only this thread seals, so the page is still open
+      } while (!lp.space.compareAndSet(space, space | SEALED));
+
+      switching = true;                     // AM: Nobody may move on again while we wait
+      long done = awaitCopies(lp, count(space));
+      lp.page.setInt(0, boundary(done));    // AM: The header of the finished page
+      lp.full = true;
+      notifyAll();                          // AM: Wakes the log writer
+      int next = (current + 1) % ring.length;
+      boolean interrupted = false;
+      while (ring[next].full && !closed) {
+         try {
+            wait();
+         }
+         catch (InterruptedException e) {
+            interrupted = true;             // AM: The record must still be appended
+         }
+      }
+      if (interrupted)
+         Thread.currentThread().interrupt();
+      if (closed) {
+         switching = false;                 // AM: lp is full, so close() writes it out
+         notifyAll();
+         throw new IllegalStateException("log " + logfile + " is closed");
+      }
+
+      LogPage np = ring[next];
+      np.blk = fm.append(logfile);          // AM: Only reserves the block number; the writer puts the page there
+      np.reset(blocksize);                  // AM: Empty page; bytes before the boundary are never read
+      current = next;
+      switching = false;
+      notifyAll();
+   }
+
+   // AM: Waits while another appender is moving the log on to the next page. Called with the monitor held.
+   private void awaitSwitch() {
+      boolean interrupted = false;
+      while (switching) {
+         try {
+            wait();
+         }
+         catch (InterruptedException e) {
+            interrupted = true;
+         }
+      }
+      if (interrupted)
+         Thread.currentThread().interrupt();
+   }
+
+   /**
+    * AM: Called by the LogWriter: waits until a page is full, then writes the full pages.
+    * @return false once the writer should stop
+    */
+   boolean writeFullPages(LogWriter w) {
+      synchronized (this) {
+         while (!ring[oldestFull].full && !w.isStopping()) {
+            try {
+               wait();
+            }
+            catch (InterruptedException e) {
+               return false;
+            }
+         }
+         if (!ring[oldestFull].full)
+            return false;
+      }
+      synchronized (writeLock) {
+         List<LogPage> full;
+         synchronized (this) {
+            full = fullPages();
+         }
+         for (LogPage lp : full)
+            fm.write(lp.blk, lp.page);
+         release(full);
+      }
+      return true;
+   }
 
-      Page p = new Page(fm.blockSize());    // AM: Create new Page of desired Block size
-      p.setInt(0, fm.blockSize());  // AM: Sets the Block size of Page at offset "0".
-      fm.write(blk, p);                     // AM: Writes the Block and Page to the File
+   // AM: The full pages, oldest first. Called with the monitor held.
+   private List<LogPage> fullPages() {
+      List<LogPage> full = new ArrayList<>();
+      for (int i = oldestFull, n = 0; n < ring.length && ring[i].full; i = (i + 1) % ring.length, n++)
+         full.add(ring[i]);
+      return full;
+   }
 
-      return blk;
+   // AM: The pages have been written and can be reused
+   private synchronized void release(List<LogPage> written) {
+      for (LogPage lp : written)
+         lp.full = false;
+      oldestFull = (oldestFull + written.size()) % ring.length;
+      notifyAll();                          // AM: Wakes an appender waiting for a free page
    }
 
    /**
     * Write the buffer to the log file.
    */
-  /* AM: Flush the Buffer to disk immediately.
-   *     Use the FileMgr directly to avoid circular dependency logic in Buffer.flush()
-   */ 
-  private void flush(){
-      fm.write(currentblk, logBuffer.contents());  // AM: Flush Log Buffer Block to Disk
-      lastSavedLSN = latestLSN;     // AM: Update Log Sequence Number to most recent flushed LSN.
+  /* AM: Writes the full pages and a snapshot of the current one, then (if force) forces the log file,
+   *     which is not opened synchronously (see Durability). read() doesn't force: it only needs the bytes in the file.
+   *     The current page is copied under the append monitor, so appenders only wait for the copy, not the disk.
+   *     Returns the block of the current page.
+   */
+  private BlockId writeOut(boolean force){
+      synchronized (writeLock) {
+         List<LogPage> full;
+         LogPage lp;
+         synchronized (this) {               // AM: One consistent cut: the full pages plus the records in the current one
+            full = fullPages();
+            lp = ring[current];              // AM: Can't be reused while we hold writeLock
+         }
+         long done = awaitCopies(lp, count(lp.space.get()));   // AM: Every record appended before the flush began
+         BlockId blk = lp.blk;
+         snapshot.copyFrom(lp.page);
+         snapshot.setInt(0, boundary(done)); // AM: Records below the watermark may be half copied; the header leaves them out
+         long savedLSN = lsn(blk.number(), boundary(done));
+         for (LogPage fp : full)
+            fm.write(fp.blk, fp.page);
+         fm.write(blk, snapshot);            // AM: Flush Log Page Block to Disk
+         lastWrittenLSN = savedLSN;
+         if (force) {
+            fm.force(logfile);               // AM: Make sure the log block has actually reached the disk
+            lastSavedLSN = savedLSN;         // AM: Update Log Sequence Number to most recent flushed LSN.
+         }
+         release(full);
+         return blk;
+      }
   }
 }
@@ -0,0 +1,76 @@
+package simpledb.log;
+
+import java.io.File;
+import java.util.Iterator;
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+
+public class LogRingTest {
+   private static final int THREADS = 4;
+   private static final int RECORDS = 2000;   // AM: Per thread; about 330 blocks of 400 bytes in all
+   private static final int MARKER = -77;     // AM: Tells the test's records from those written by the database startup
+
+   public static void main(String[] args) throws Exception {
+      File dir = new File("logringtest");     // AM: Starts from an empty log, so the block count below is this run's
+      if (dir.exists()) {
+         for (String name : dir.list())
+            new File(dir, name).delete();
+         dir.delete();
+      }
+      SimpleDB.LOG_PAGES = 2;                  // AM: Double buffering, so appenders often catch up with the writer
+      SimpleDB db = new SimpleDB("logringtest", 400, 8);
+      LogMgr lm = db.logMgr();
+      System.out.println("Buffers in use by the log: " + (db.bufferMgr().numBuffers() - db.bufferMgr().available()));
+
+      // AM: Concurrent appenders, each flushing now and then as a commit would
+      Thread[] ts = new Thread[THREADS];
+      for (int t = 0; t < THREADS; t++) {
+         final int id = t;
+         ts[t] = new Thread(() -> {
+            for (int i = 0; i < RECORDS; i++) {
+               byte[] rec = new byte[3 * Integer.BYTES];
+               Page p = new Page(rec);
+               p.setInt(0, MARKER);
+               p.setInt(Integer.BYTES, id);
+               p.setInt(2 * Integer.BYTES, i);
+               long lsn = lm.append(rec);
+               if (i % 100 == 99)
+                  lm.flush(lsn);
+            }
+         });
+         ts[t].start();
+      }
+      for (Thread t : ts)
+         t.join();
+      System.out.println("Log blocks: " + db.fileMgr().length(SimpleDB.LOG_FILE));
+      System.out.println("All records read back newest first: " + check(lm.iterator()));
+
+      // AM: A new LogMgr on the same file (as after a restart) sees the same log; the first database lets go of its files first
+      db.shutdown();
+      FileMgr fm = new FileMgr(dir, 400);
+      LogMgr reopened = new LogMgr(fm, SimpleDB.LOG_FILE);
+      System.out.println("All records read back after reopening: " + check(reopened.iterator()));
+      reopened.close();
+      fm.close();
+   }
+
+   // AM: Every thread's records must come back, each thread's in reverse order
+   private static boolean check(Iterator<byte[]> iter) {
+      int[] next = new int[THREADS];
+      for (int t = 0; t < THREADS; t++)
+         next[t] = RECORDS - 1;
+      while (iter.hasNext()) {
+         byte[] rec = iter.next();
+         Page p = new Page(rec);
+         if (rec.length != 3 * Integer.BYTES || p.getInt(0) != MARKER)
+            continue;
+         int id = p.getInt(Integer.BYTES);
+         if (p.getInt(2 * Integer.BYTES) != next[id]--)
+            return false;
+      }
+      for (int t = 0; t < THREADS; t++)
+         if (next[t] != -1)
+            return false;
+      return true;
+   }
+}
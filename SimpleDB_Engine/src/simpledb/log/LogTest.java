@@ -6,6 +6,7 @@ import simpledb.file.Page;
 
 public class LogTest {
    private static LogMgr lm;
+   private static long[] lsns = new long[71];   // AM: LSNs are log positions now, so record i's LSN is kept to flush it
 
    public static void main(String[] args) {
       SimpleDB db = new SimpleDB("logtest", 400, 8);
@@ -16,7 +17,7 @@ public class LogTest {
       createRecords(1, 35);
       printLogRecords("The log file now has these records:");
       createRecords(36, 70);
-      lm.flush(65);
+      lm.flush(lsns[65]);
       printLogRecords("The log file now has these records:");
    }
 
@@ -38,7 +39,8 @@ public class LogTest {
       System.out.print("Creating records: ");
       for (int i=start; i<=end; i++) {
          byte[] rec = createLogRecord("record"+i, i+100);
-         int lsn = lm.append(rec);
+         long lsn = lm.append(rec);
+         lsns[i] = lsn;
          System.out.print(lsn + " ");
       }
       System.out.println();
@@ -0,0 +1,66 @@
+package simpledb.log;
+
+/**
+ * AM: The background writer of a LogMgr.
+ * A daemon thread that waits until a log page fills up and writes it to the log file,
+ * while appenders carry on in the next page of the ring (LogMgr.writeFullPages()).
+ * It never forces the log; that is left to LogMgr.flush(), which also writes any full page
+ * the writer hasn't got to yet, so a commit never depends on this thread.
+ * A failed write is retried on the next pass: the page stays full until it is written.
+ */
+class LogWriter implements Runnable {
+   private static final long RETRY_MILLIS = 10;
+   private LogMgr lm;
+   private volatile boolean running = true;
+   private Thread thread;
+
+   /**
+    * @param lm the log manager whose pages are written
+    */
+   LogWriter(LogMgr lm) {
+      this.lm = lm;
+   }
+
+   void start() {
+      thread = new Thread(this, "simpledb-log-writer");
+      thread.setDaemon(true);                // AM: Never keeps the JVM alive; a full page is also written by the next flush()
+      thread.start();
+   }
+
+   /**
+    * Stops the thread and waits for the current pass to finish.
+    */
+   void shutdown() {
+      running = false;
+      synchronized (lm) {
+         lm.notifyAll();                     // AM: The writer waits on the LogMgr monitor for a full page
+      }
+      try {
+         thread.join();
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   boolean isStopping() {
+      return !running;
+   }
+
+   public void run() {
+      while (running) {
+         try {
+            if (!lm.writeFullPages(this))
+               return;
+         }
+         catch (RuntimeException e) {
+            try {
+               Thread.sleep(RETRY_MILLIS);   // AM: See the class comment
+            }
+            catch (InterruptedException ie) {
+               return;
+            }
+         }
+      }
+   }
+}
@@ -31,8 +31,11 @@ public class TempTable {
    
    /**
     * Open a table scan for the temporary table.
+    * Temporary tables are written and read in bulk (sort runs,
+    * materialized results), so they use the transaction's buffer ring.
     */
    public UpdateScan open() {
+      tx.useBufferRing(tblname + ".tbl");
       return new TableScan(tx, tblname, layout);
    }
    
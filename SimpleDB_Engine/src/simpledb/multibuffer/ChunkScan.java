@@ -33,10 +33,12 @@ public class ChunkScan implements Scan {
       this.layout = layout;
       this.startbnum = startbnum;
       this.endbnum   = endbnum;
-      for (int i=startbnum; i<=endbnum; i++) {
-         BlockId blk = new BlockId(filename, i);
+      List<BlockId> blks = new ArrayList<>();
+      for (int i=startbnum; i<=endbnum; i++)
+         blks.add(new BlockId(filename, i));
+      tx.prefetch(blks);   // AM: Start reading the whole chunk at once; each pin below then only waits for its own block
+      for (BlockId blk : blks)
          buffs.add(new RecordPage(tx, blk, layout));
-      }
       moveToBlock(startbnum);
    }
 
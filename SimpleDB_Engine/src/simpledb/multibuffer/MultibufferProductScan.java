@@ -29,7 +29,7 @@ public class MultibufferProductScan implements Scan {
       this.filename = tblname + ".tbl";
       this.layout = layout;
       filesize = tx.size(filename);
-      int available = tx.availableBuffs();
+      int available = tx.availableBuffs(filename);
       chunksize = BufferNeeds.bestFactor(available, filesize);
       beforeFirst();
    }
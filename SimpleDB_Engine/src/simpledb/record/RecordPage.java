@@ -34,10 +34,18 @@ public class RecordPage {
    private Layout layout;
 
    public RecordPage(Transaction tx, BlockId blk, Layout layout) {
+      this(tx, blk, layout, false);
+   }
+
+   // AM: bulk = the block is one step of a large sequential scan, so it is pinned through the transaction's buffer ring
+   RecordPage(Transaction tx, BlockId blk, Layout layout, boolean bulk) {
       this.tx = tx;
       this.blk = blk;
       this.layout = layout;
-      tx.pin(blk);
+      if (bulk)
+         tx.pinInRing(blk);
+      else
+         tx.pin(blk);
    }
 
    /**
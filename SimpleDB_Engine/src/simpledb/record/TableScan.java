@@ -31,6 +31,12 @@ import simpledb.tx.Transaction;
  * - When RecordPage reports "I am out of records on this block," TableScan takes over.
  * - It unpins the current block, calculates the next block number, pins the new block,
  * and sets up a new RecordPage worker to continue the work seamlessly.
+ * * 4. LARGE TABLES
+ * - When next() walks a table bigger than a quarter of its buffer pool from beforeFirst(), each block it
+ * steps to is pinned through the transaction's buffer ring (BufferMgr, section 5b), so one big scan
+ * doesn't evict everything else.
+ * - Only that walk uses the ring. moveToRid() (index lookups) and insert() end it, and pin their blocks
+ * in the shared pool, where a working set of looked-up pages belongs.
  */
 public class TableScan implements UpdateScan {
    private Transaction tx;
@@ -38,21 +44,28 @@ public class TableScan implements UpdateScan {
    private RecordPage rp;
    private String filename;
    private int currentslot;
+   private boolean sequential;   // AM: True while next() is walking the table from beforeFirst()
+   private boolean bulk;         // AM: The table is large enough for that walk to use the buffer ring
 
    public TableScan(Transaction tx, String tblname, Layout layout) {
       this.tx = tx;
       this.layout = layout;
       filename = tblname + ".tbl";
-      if (tx.size(filename) == 0)
+      int size = tx.size(filename);
+      bulk = size > tx.totalBuffs(filename) / 4;
+      sequential = true;
+      if (size == 0)
          moveToNewBlock();
       else 
-         moveToBlock(0);
+         moveToBlock(0, false);
    }
 
    // Methods that implement Scan
 
    public void beforeFirst() {
-      moveToBlock(0);
+      bulk = tx.size(filename) > tx.totalBuffs(filename) / 4;
+      sequential = true;
+      moveToBlock(0, false);
    }
 
    public boolean next() {
@@ -60,7 +73,7 @@ public class TableScan implements UpdateScan {
       while (currentslot < 0) {
          if (atLastBlock())
             return false;
-         moveToBlock(rp.block().number()+1);
+         moveToBlock(rp.block().number()+1, sequential && bulk);
          currentslot = rp.nextAfter(currentslot);
       }
       return true;
@@ -108,12 +121,13 @@ public class TableScan implements UpdateScan {
    }
 
    public void insert() {
+      sequential = false;
       currentslot = rp.insertAfter(currentslot);
       while (currentslot < 0) {
          if (atLastBlock()) 
             moveToNewBlock();
          else 
-            moveToBlock(rp.block().number()+1);
+            moveToBlock(rp.block().number()+1, false);
          currentslot = rp.insertAfter(currentslot);
       }
    }
@@ -123,6 +137,7 @@ public class TableScan implements UpdateScan {
    }
 
    public void moveToRid(RID rid) {
+      sequential = false;
       close();
       BlockId blk = new BlockId(filename, rid.blockNumber());
       rp = new RecordPage(tx, blk, layout);
@@ -135,11 +150,11 @@ public class TableScan implements UpdateScan {
 
    // Private auxiliary methods
    
-   // AM: Retrieve existing block and move to the first slot on that block
-   private void moveToBlock(int blknum) {
+   // AM: Retrieve existing block and move to the first slot on that block; inRing = pin it through the buffer ring
+   private void moveToBlock(int blknum, boolean inRing) {
       close();
       BlockId blk = new BlockId(filename, blknum);
-      rp = new RecordPage(tx, blk, layout);
+      rp = new RecordPage(tx, blk, layout, inRing);
       currentslot = -1;
    }
 
@@ -0,0 +1,75 @@
+package simpledb.record;
+
+import simpledb.file.FileBackend;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+
+/**
+ * AM: Compares full TableScans over the CHANNEL, MAPPED and COMPRESSED file backends.
+ * The table is loaded once (and once more in a separate compressed database), then for each backend:
+ *    cold -> a fresh SimpleDB instance (new FileMgr, no open files or mappings, empty buffer pool)
+ *    warm -> the same scan repeated in that instance
+ * "Cold" here only means cold inside SimpleDB; the OS page cache is not dropped.
+ * Usage: java simpledb.record.TableScanBenchmark [records] [blocksize] [buffers]
+ */
+public class TableScanBenchmark {
+   private static final String DIRNAME = "tablescanbenchmark";
+   private static final int WARM_RUNS = 5;
+
+   public static void main(String[] args) {
+      int nrecs = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+      int blocksize = (args.length > 1) ? Integer.parseInt(args[1]) : 4096;
+      int buffers = (args.length > 2) ? Integer.parseInt(args[2]) : 8;
+
+      Schema sch = new Schema();
+      sch.addIntField("A");
+      sch.addStringField("B", 20);
+      Layout layout = new Layout(sch);
+
+      for (FileBackend backend : FileBackend.values()) {
+         SimpleDB.FILE_BACKEND = backend;
+         String dirname = (backend == FileBackend.COMPRESSED) ? DIRNAME + "compressed" : DIRNAME;   // AM: A compressed database has its own file format
+         int blocks = load(new SimpleDB(dirname, blocksize, buffers), layout, nrecs);
+         SimpleDB db = new SimpleDB(dirname, blocksize, buffers);
+         long cold = scan(db, layout);
+         long warm = Long.MAX_VALUE;
+         for (int i=0; i<WARM_RUNS; i++)
+            warm = Math.min(warm, scan(db, layout));
+         System.out.printf("%-10s %d blocks: cold %.2f ms, warm (best of %d) %.2f ms, %.0f blocks/s warm%n",
+               backend, blocks, cold / 1e6, WARM_RUNS, warm / 1e6, blocks / (warm / 1e9));
+      }
+   }
+
+   // AM: Loads the table if it is not there yet and returns its size in blocks
+   private static int load(SimpleDB db, Layout layout, int nrecs) {
+      Transaction tx = db.newTx();
+      if (tx.size("big.tbl") == 0) {
+         System.out.println("Loading " + nrecs + " records");
+         TableScan ts = new TableScan(tx, "big", layout);
+         for (int i=0; i<nrecs; i++) {
+            ts.insert();
+            ts.setInt("A", i);
+            ts.setString("B", "rec" + i);
+         }
+         ts.close();
+      }
+      int blocks = tx.size("big.tbl");
+      tx.commit();
+      return blocks;
+   }
+
+   private static long scan(SimpleDB db, Layout layout) {
+      long start = System.nanoTime();
+      Transaction tx = db.newTx();
+      TableScan ts = new TableScan(tx, "big", layout);
+      long sum = 0;
+      while (ts.next())
+         sum += ts.getInt("A");
+      ts.close();
+      tx.commit();
+      long elapsed = System.nanoTime() - start;
+      if (sum < 0)
+         System.out.println(sum);   // AM: Keeps the loop from being optimized away
+      return elapsed;
+   }
+}
@@ -0,0 +1,118 @@
+package simpledb.server;
+
+import java.io.File;
+import java.util.Random;
+import simpledb.index.btree.BTreeIndex;
+import simpledb.query.Constant;
+import simpledb.record.*;
+import simpledb.tx.Transaction;
+
+/**
+ * AM: Measures insert, full scan and index lookup throughput for several block sizes.
+ * For each size a fresh database is created and the same workload is run:
+ *    insert -> records inserted into a table plus a B-tree index on A, one commit at the end
+ *    scan   -> a full TableScan (best of SCAN_RUNS)
+ *    lookup -> random equality lookups through the index, each followed by moveToRid
+ * The buffer pool is kept at the same number of bytes (POOL_BYTES) for every block size,
+ * so larger blocks mean fewer buffers, not more memory.
+ * Usage: java simpledb.server.BlockSizeBenchmark [records] [lookups] [blocksize...]
+ */
+public class BlockSizeBenchmark {
+   private static final int POOL_BYTES = 1024 * 1024;
+   private static final int MIN_BUFFERS = 8;
+   private static final int SCAN_RUNS = 3;
+
+   public static void main(String[] args) {
+      int nrecs = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+      int nlookups = (args.length > 1) ? Integer.parseInt(args[1]) : 5000;
+      int[] sizes = {400, 4096, 8192, 16384, 32768, 65536};
+      if (args.length > 2) {
+         sizes = new int[args.length - 2];
+         for (int i=2; i<args.length; i++)
+            sizes[i-2] = Integer.parseInt(args[i]);
+      }
+
+      Schema sch = new Schema();
+      sch.addIntField("A");
+      sch.addStringField("B", 20);
+      Layout layout = new Layout(sch);
+      Schema idxsch = new Schema();
+      idxsch.addIntField("block");
+      idxsch.addIntField("id");
+      idxsch.addIntField("dataval");
+      Layout idxLayout = new Layout(idxsch);
+
+      System.out.println("blocksize  buffers  insert(rows/s)  scan(rows/s)  lookup(lookups/s)");
+      for (int blocksize : sizes) {
+         String dirname = "blocksizebenchmark" + blocksize;
+         deleteDirectory(new File(dirname));
+         int buffers = Math.max(MIN_BUFFERS, POOL_BYTES / blocksize);
+         SimpleDB db = new SimpleDB(dirname, blocksize, buffers);
+
+         long start = System.nanoTime();
+         Transaction tx = db.newTx();
+         TableScan ts = new TableScan(tx, "bench", layout);
+         BTreeIndex idx = new BTreeIndex(tx, "benchidx", idxLayout);
+         for (int i=0; i<nrecs; i++) {
+            ts.insert();
+            ts.setInt("A", i);
+            ts.setString("B", "rec" + i);
+            idx.insert(new Constant(i), ts.getRid());
+         }
+         idx.close();
+         ts.close();
+         tx.commit();
+         double insert = rate(nrecs, System.nanoTime() - start);
+
+         long best = Long.MAX_VALUE;
+         for (int r=0; r<SCAN_RUNS; r++) {
+            start = System.nanoTime();
+            tx = db.newTx();
+            ts = new TableScan(tx, "bench", layout);
+            long count = 0;
+            while (ts.next())
+               count += ts.getInt("A") >= 0 ? 1 : 0;
+            ts.close();
+            tx.commit();
+            best = Math.min(best, System.nanoTime() - start);
+            if (count != nrecs)
+               throw new IllegalStateException("scan returned " + count + " records");
+         }
+         double scan = rate(nrecs, best);
+
+         Random rand = new Random(blocksize);
+         start = System.nanoTime();
+         tx = db.newTx();
+         ts = new TableScan(tx, "bench", layout);
+         idx = new BTreeIndex(tx, "benchidx", idxLayout);
+         for (int i=0; i<nlookups; i++) {
+            int key = rand.nextInt(nrecs);
+            idx.beforeFirst(new Constant(key));
+            if (!idx.next())
+               throw new IllegalStateException("key " + key + " not found");
+            ts.moveToRid(idx.getDataRid());
+            if (ts.getInt("A") != key)
+               throw new IllegalStateException("wrong record for key " + key);
+         }
+         idx.close();
+         ts.close();
+         tx.commit();
+         double lookup = rate(nlookups, System.nanoTime() - start);
+
+         System.out.printf("%9d  %7d  %14.0f  %12.0f  %17.0f%n", blocksize, buffers, insert, scan, lookup);
+      }
+   }
+
+   private static double rate(long n, long nanos) {
+      return n / (nanos / 1e9);
+   }
+
+   // AM: Database directories are flat, so deleting the files and then the directory is enough
+   private static void deleteDirectory(File dir) {
+      File[] files = dir.listFiles();
+      if (files != null)
+         for (File f : files)
+            f.delete();
+      dir.delete();
+   }
+}
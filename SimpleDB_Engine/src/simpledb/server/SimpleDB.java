@@ -1,9 +1,18 @@
 package simpledb.server;
 
-import java.io.File;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import simpledb.file.BlockId;
+import simpledb.file.Durability;
+import simpledb.file.FileBackend;
 import simpledb.file.FileMgr;
 import simpledb.log.LogMgr;
 import simpledb.buffer.BufferMgr;
+import simpledb.buffer.BufferPools;
+import simpledb.buffer.FileClass;
+import simpledb.buffer.ReplacementStrategy;
 import simpledb.tx.Transaction;
 import simpledb.metadata.MetadataMgr;
 import simpledb.plan.*;
@@ -16,12 +25,24 @@ import simpledb.opt.HeuristicQueryPlanner;
  * @author Edward Sciore
  */
 public class SimpleDB {
-   public static int BLOCK_SIZE = 400;
-   public static int BUFFER_SIZE = 8;
+   public static int BLOCK_SIZE = Integer.getInteger("simpledb.blocksize", 4096);   // AM: Only used when a database is created; an existing one keeps its recorded size
+   public static int BUFFER_SIZE = Integer.getInteger("simpledb.buffers", 8);
    public static String LOG_FILE = "simpledb.log";
+   public static String WARM_FILE = "simpledb.warm";   // AM: The blocks that were in the buffer pool at the last clean shutdown
+   public static Durability DURABILITY = Durability.FORCE_AT_COMMIT;   // AM: SYNC_WRITES restores "rws" on every log and data file
+   public static ReplacementStrategy REPLACEMENT = ReplacementStrategy.valueOf(System.getProperty("simpledb.replacement", "CLOCK"));   // AM: CLOCK, LRU_K, TWO_Q or ARC
+   public static FileBackend FILE_BACKEND = FileBackend.CHANNEL;       // AM: MAPPED serves table and index files from memory-mapped segments; COMPRESSED stores them LZ-compressed
+   public static long PIN_TIMEOUT = Long.getLong("simpledb.pintimeout", 10000);         // AM: Milliseconds a pin waits for a buffer before BufferAbortException
+   public static long WRITER_INTERVAL = Long.getLong("simpledb.writerinterval", 100);   // AM: Milliseconds between background writer passes; 0 = no background writer
+   public static int LOG_PAGES = Integer.getInteger("simpledb.logpages", LogMgr.DEFAULT_LOG_PAGES);   // AM: Pages in the log's private ring
+   public static long GROUP_COMMIT_DELAY = Long.getLong("simpledb.groupcommitdelay", 0);   // AM: Microseconds a group commit leader waits for more commits before forcing the log
+   public static int INDEX_BUFFERS = Integer.getInteger("simpledb.buffers.index", 0);       // AM: Size of a separate pool for B-tree files; 0 = they share the main pool
+   public static int CATALOG_BUFFERS = Integer.getInteger("simpledb.buffers.catalog", 0);   // AM: Size of a separate pool for the catalog tables; 0 = shared
+   public static int TEMP_BUFFERS = Integer.getInteger("simpledb.buffers.temp", 0);         // AM: Size of a separate pool for temp tables; 0 = shared
 
    private  FileMgr     fm;
    private  BufferMgr   bm;
+   private  BufferPools pools;
    private  LogMgr      lm;
    private  MetadataMgr mdm;
    private  Planner planner;
@@ -29,15 +50,28 @@ public class SimpleDB {
    /**
     * A constructor useful for debugging.
     * @param dirname the name of the database directory
-    * @param blocksize the block size
+    * @param blocksize the block size for a new database (an existing database keeps the size recorded in its header)
     * @param buffsize the number of buffers
     */
    public SimpleDB(String dirname, int blocksize, int buffsize) {
       File dbDirectory = new File(dirname);
-      fm = new FileMgr(dbDirectory, blocksize);
-      lm = new LogMgr(fm, LOG_FILE);
-      bm = new BufferMgr(fm, lm, buffsize);
-      lm.setBufferMgr(bm);                   // AM: 4.11 exercise
+      fm = new FileMgr(dbDirectory, blocksize, DURABILITY, FILE_BACKEND);
+      lm = new LogMgr(fm, LOG_FILE, LOG_PAGES);
+      lm.setGroupCommitDelay(GROUP_COMMIT_DELAY);
+      bm = new BufferMgr(fm, lm, buffsize, REPLACEMENT);
+      Map<FileClass, BufferMgr> others = new EnumMap<>(FileClass.class);
+      addPool(others, FileClass.INDEX, INDEX_BUFFERS);
+      addPool(others, FileClass.CATALOG, CATALOG_BUFFERS);
+      addPool(others, FileClass.TEMP, TEMP_BUFFERS);
+      pools = new BufferPools(bm, others);
+      pools.setPinTimeout(PIN_TIMEOUT);
+      if (WRITER_INTERVAL > 0)
+         pools.startBackgroundWriter(WRITER_INTERVAL);
+   }
+
+   private void addPool(Map<FileClass, BufferMgr> others, FileClass fc, int buffsize) {
+      if (buffsize > 0)
+         others.put(fc, new BufferMgr(fm, lm, buffsize, REPLACEMENT, fc.name().toLowerCase()));
    }
    
    /**
@@ -46,7 +80,7 @@ public class SimpleDB {
     * @param dirname the name of the database directory
     */
    public SimpleDB(String dirname) {
-      this(dirname, BLOCK_SIZE, BUFFER_SIZE); 
+      this(dirname, FileMgr.isLegacyDatabase(new File(dirname)) ? FileMgr.LEGACY_BLOCK_SIZE : BLOCK_SIZE, BUFFER_SIZE);
       Transaction tx = newTx();
       boolean isnew = fm.isNew();
       if (isnew)
@@ -62,6 +96,72 @@ public class SimpleDB {
 //    UpdatePlanner up = new IndexUpdatePlanner(mdm);
       planner = new Planner(qp, up);
       tx.commit();
+      warmUp();
+   }
+
+   /**
+    * Shuts the database down cleanly: stops the background writers, writes
+    * out the log and records the blocks in the buffer pools, hottest first, so the next
+    * start can read them back in ahead of time. Finally closes the files,
+    * trimming each one to its logical length.
+    * Transactions should have finished; whatever they left uncommitted
+    * is rolled back by the recovery at the next start, as after a crash.
+    */
+   public void shutdown() {
+      pools.stopBackgroundWriter();
+      lm.close();
+      saveWarmList();
+      fm.close();                            // AM: Trims each file to its logical length for the next start
+   }
+
+   /**
+    * Records the blocks in the buffer pools, hottest first,
+    * for the next start to read back in, without closing anything.
+    * Used instead of shutdown() when transactions are still running:
+    * the files stay open for them, and the next start recovers
+    * as after a crash.
+    */
+   public void saveWarmList() {
+      File warm = new File(fm.directory(), WARM_FILE);
+      File tmp = new File(fm.directory(), WARM_FILE + ".tmp");
+      try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(tmp)))) {
+         for (BlockId blk : pools.residentBlocks())
+            out.println(blk.fileName() + " " + blk.number());   // AM: Same format as a BufferMgr pin trace
+      }
+      catch (IOException e) {
+         tmp.delete();                       // AM: The list is only a hint; a failed save just means a cold start
+      }
+      if (!tmp.exists())
+         return;
+      try {
+         // AM: Replaces the old list in one step, so a crash never leaves half a list
+         Files.move(tmp.toPath(), warm.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (IOException e) {
+         tmp.delete();
+      }
+   }
+
+   // AM: Starts reading the blocks saved by the last shutdown(); the list is used once, so a crash later on starts cold
+   private void warmUp() {
+      File warm = new File(fm.directory(), WARM_FILE);
+      if (!warm.exists())
+         return;
+      List<BlockId> blks = new ArrayList<>();
+      try (BufferedReader in = new BufferedReader(new FileReader(warm))) {
+         String line;
+         while ((line = in.readLine()) != null) {
+            int sp = line.lastIndexOf(' ');
+            if (sp > 0)
+               blks.add(new BlockId(line.substring(0, sp), Integer.parseInt(line.substring(sp + 1).trim())));
+         }
+      }
+      catch (IOException | NumberFormatException e) {
+         blks.clear();
+      }
+      warm.delete();
+      if (!blks.isEmpty())
+         pools.warmUp(blks);
    }
    
    /**
@@ -69,7 +169,7 @@ public class SimpleDB {
     * and access the metadata.
     */
    public Transaction newTx() {
-      return new Transaction(fm, lm, bm);
+      return new Transaction(fm, lm, pools);
    }
    
    public MetadataMgr mdMgr() {
@@ -90,4 +190,7 @@ public class SimpleDB {
    public BufferMgr bufferMgr() {
       return bm;
    }   
+   public BufferPools bufferPools() {
+      return pools;
+   }   
  }
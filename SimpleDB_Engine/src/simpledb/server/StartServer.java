@@ -1,10 +1,15 @@
 package simpledb.server;
 
+import java.rmi.RemoteException;
 import java.rmi.registry.*;
+import java.rmi.server.UnicastRemoteObject;
 
 import simpledb.jdbc.network.*;
+import simpledb.tx.Transaction;
 
 public class StartServer {
+   private static final long DRAIN_MILLIS = Long.getLong("simpledb.drainmillis", 10000);   // AM: How long a shutdown waits for open transactions
+
    public static void main(String args[]) throws Exception {
       // configure and initialize the database
       String dirname = (args.length == 0) ? "studentdb" : args[0];
@@ -16,7 +21,25 @@ public class StartServer {
       // and post the server entry in it
       RemoteDriver d = new RemoteDriverImpl(db);
       reg.rebind("simpledb", d);
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> stop(db, reg, d)));   // AM: Saves the buffer pool's contents for a warm restart
       
       System.out.println("database server ready");
    }
+
+   // AM: Stops taking connections, then waits for the open transactions before closing the log and the files.
+   //     A connection always has a transaction open, so one left open past DRAIN_MILLIS keeps the files open:
+   //     only the warm list is saved, and the next start recovers as after a crash.
+   private static void stop(SimpleDB db, Registry reg, RemoteDriver d) {
+      try {
+         UnicastRemoteObject.unexportObject(reg, true);
+         UnicastRemoteObject.unexportObject(d, true);
+      }
+      catch (RemoteException e) {
+         // AM: Already unexported
+      }
+      if (Transaction.awaitIdle(DRAIN_MILLIS))
+         db.shutdown();
+      else
+         db.saveWarmList();
+   }
 }
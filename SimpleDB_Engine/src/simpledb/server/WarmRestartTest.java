@@ -0,0 +1,37 @@
+package simpledb.server;
+
+import simpledb.buffer.BufferMgr;
+import simpledb.file.*;
+
+public class WarmRestartTest {
+   public static void main(String[] args) throws Exception {
+      SimpleDB.BUFFER_SIZE = 32;
+      SimpleDB db = new SimpleDB("warmrestarttest");
+      FileMgr fm = db.fileMgr();
+      BufferMgr bm = db.bufferMgr();
+      Page p = new Page(fm.blockSize());
+      for (int i = 0; i < 40; i++)
+         fm.write(fm.append("warmfile"), p);
+
+      // AM: Make every other block of the first 20 resident, then shut down
+      for (int i = 0; i < 20; i += 2)
+         bm.unpin(bm.pin(new BlockId("warmfile", i)));
+      db.shutdown();
+      System.out.println("Blocks saved: " + bm.residentBlocks().size());
+
+      // AM: The restarted database reads them back in the background
+      db = new SimpleDB("warmrestarttest");
+      fm = db.fileMgr();
+      bm = db.bufferMgr();
+      long start = System.currentTimeMillis();
+      while (fm.fileStats("warmfile").getReads() < 10 && System.currentTimeMillis() - start < 5000)
+         Thread.sleep(10);
+      System.out.println("Blocks of warmfile read by the warm-up: " + fm.fileStats("warmfile").getReads()
+            + " in " + fm.fileStats("warmfile").getReadCalls() + " reads");
+      fm.resetStatistics();
+      for (int i = 0; i < 20; i += 2)
+         bm.unpin(bm.pin(new BlockId("warmfile", i)));
+      System.out.println("Blocks read when they were pinned: " + fm.fileStats("warmfile").getReads());
+      db.shutdown();
+   }
+}
@@ -27,14 +27,28 @@ import simpledb.buffer.*;
  * * 3. CACHE OPTIMIZATION
  * - If a transaction asks for Block 5 twice, BufferList sees it's already in the
  * private map and returns it immediately, avoiding a redundant call to the global BufferMgr.
+ * * 4. BUFFER RING (Bulk access)
+ * - Files registered with useRing() (temp tables), and single blocks pinned with pin(blk, true)
+ * (the steps of a large sequential scan), are pinned through one BufferRing per pool,
+ * so the transaction's bulk work recycles a few frames of its own.
+ * - unpinAll() at commit/rollback gives the ring's frames back to the shared pool.
+ * * 5. SEPARATE POOLS
+ * - Each block is pinned in, and unpinned from, the pool BufferPools routes its file to.
+ * - A ring belongs to one pool, so the transaction keeps one ring per pool it scans in bulk.
  */
 class BufferList {
    private Map<BlockId,Buffer> buffers = new HashMap<>();  // AM: Tracks Buffers in use by a Transaction
    private List<BlockId> pins = new ArrayList<>();         // AM: Tracks list of pinned Blocks
-   private BufferMgr bm;
+   private BufferPools pools;
+   private Map<BufferMgr,BufferRing> rings = new HashMap<>();   // AM: Per pool, created on its first bulk pin or useRing()
+   private Set<String> ringFiles = new HashSet<>();        // AM: Files whose blocks are pinned through a ring
   
    public BufferList(BufferMgr bm) {
-      this.bm = bm;
+      this(new BufferPools(bm));
+   }
+
+   public BufferList(BufferPools pools) {
+      this.pools = pools;
    }
    
    /**
@@ -53,18 +67,41 @@ class BufferList {
     * @param blk a reference to the disk block
     */
    void pin(BlockId blk) {
-      Buffer buff = bm.pin(blk);
+      pin(blk, false);
+   }
+
+   /**
+    * Pin the block, through the buffer ring if inRing is set
+    * or the block's file was registered with useRing().
+    * @param blk a reference to the disk block
+    * @param inRing whether this pin is part of bulk access
+    */
+   void pin(BlockId blk, boolean inRing) {
+      BufferMgr bm = pools.poolFor(blk.fileName());
+      BufferRing ring = null;
+      if (inRing || ringFiles.contains(blk.fileName()))
+         ring = rings.computeIfAbsent(bm, BufferMgr::newRing);
+      Buffer buff = bm.pin(blk, ring);
       buffers.put(blk, buff);    // AM: Store txn Buffer in HashMap
       pins.add(blk);
    }
    
+   /**
+    * Pin the blocks of the specified file through the buffer ring.
+    * @param filename the name of the file
+    */
+   void useRing(String filename) {
+      rings.computeIfAbsent(pools.poolFor(filename), BufferMgr::newRing);
+      ringFiles.add(filename);
+   }
+
    /**
     * Unpin the specified block.
     * @param blk a reference to the disk block
     */
    void unpin(BlockId blk) {
       Buffer buff = buffers.get(blk);
-      bm.unpin(buff);
+      pools.poolFor(blk.fileName()).unpin(buff);
       pins.remove(blk);
       if (!pins.contains(blk))
          buffers.remove(blk);
@@ -76,9 +113,13 @@ class BufferList {
    void unpinAll() {
       for (BlockId blk : pins) {
          Buffer buff = buffers.get(blk);
-         bm.unpin(buff);
+         pools.poolFor(blk.fileName()).unpin(buff);
       }
       buffers.clear();
       pins.clear();
+      for (Map.Entry<BufferMgr,BufferRing> e : rings.entrySet())
+         e.getKey().releaseRing(e.getValue());
+      rings.clear();
+      ringFiles.clear();
    }
 }
\ No newline at end of file
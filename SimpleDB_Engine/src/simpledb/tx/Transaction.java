@@ -17,8 +17,8 @@ import java.util.*;     // AM: Loads in HashMap class
  * A "Transaction" is a logical group of instructions (reads/writes) that must succeed
  * or fail as a single unit. This class ensures that unit integrity.
  * * * 1. THE COORDINATOR (The "Hub")
- * - The Transaction object holds references to the global managers (FileMgr, LogMgr, BufferMgr)
- * and creates its own private helpers (RecoveryMgr, ConcurrencyMgr).
+ * - The Transaction object holds references to the global managers (FileMgr, LogMgr, and the
+ * BufferPools that route each block to its BufferMgr) and creates its own private helpers (RecoveryMgr, ConcurrencyMgr).
  * - It acts as the single point of entry for all upper-level database operations.
  * * * 2. LIFECYCLE MANAGEMENT
  * - START: Assigns a unique, persistent Transaction ID (TxID).
@@ -51,12 +51,15 @@ import java.util.*;     // AM: Loads in HashMap class
  */
 public class Transaction {
    private static final int END_OF_FILE = -1;   // AM: Creates a logical lock for a BlockId
+   private static final Object activeLock = new Object();
+   private static int active = 0;               // AM: Transactions started and not yet committed or rolled back, in this JVM. Guarded by activeLock.
    private RecoveryMgr    recoveryMgr;
    private ConcurrencyMgr concurMgr;
-   private BufferMgr bm;
+   private BufferPools pools;
    private FileMgr fm;
    private int txnum;
    private BufferList mybuffers;
+   private boolean finished = false;            // AM: Set once the transaction has left the active count
 
    // AM: Tracks the original size of files we appended to.
    //       Key = Filename, Value = Original Block Count (before we grew it)
@@ -75,13 +78,24 @@ public class Transaction {
     * is called first.
     */
    public Transaction(FileMgr fm, LogMgr lm, BufferMgr bm) {
+      this(fm, lm, new BufferPools(bm));
+   }
+
+   /**
+    * Create a new transaction whose blocks are cached
+    * in the pool of their file's class.
+    */
+   public Transaction(FileMgr fm, LogMgr lm, BufferPools pools) {
       this.fm = fm;
-      this.bm = bm;
+      this.pools = pools;
       //txnum       = nextTxNumber();     // AM: Exercise 5.50 - Not added, only commented out
       txnum       = nextTxNumber(fm);     // AM: Exercise 5.50 - Writes transaction number to log to preserve number sequence
-      recoveryMgr = new RecoveryMgr(this, txnum, lm, bm);
+      recoveryMgr = new RecoveryMgr(this, txnum, lm, pools);
       concurMgr   = new ConcurrencyMgr();
-      mybuffers = new BufferList(bm);
+      mybuffers = new BufferList(pools);
+      synchronized (activeLock) {
+         active++;
+      }
    }
    
    /**
@@ -95,6 +109,7 @@ public class Transaction {
       System.out.println("transaction " + txnum + " committed");
       concurMgr.release();    // AM: Releases locks from LockTbl
       mybuffers.unpinAll();   // AM: Unpins all Buffers related to Transaction
+      finish();
    }
    
    /**
@@ -118,6 +133,41 @@ public class Transaction {
 
       concurMgr.release();                               // AM: Release locks from global Lock Table
       mybuffers.unpinAll();                              // AM: Unpin transactions buffers
+      finish();
+   }
+
+   /**
+    * Waits until every transaction started in this JVM
+    * has committed or rolled back, or until the timeout expires.
+    * Used by the server to let open transactions finish
+    * before the database is shut down.
+    * @param millis the longest time to wait, in milliseconds
+    * @return true if no transaction is active
+    */
+   public static boolean awaitIdle(long millis) {
+      long deadline = System.currentTimeMillis() + millis;
+      synchronized (activeLock) {
+         try {
+            long left;
+            while (active > 0 && (left = deadline - System.currentTimeMillis()) > 0)
+               activeLock.wait(left);
+         }
+         catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+         return active == 0;
+      }
+   }
+
+   // AM: Takes the transaction out of the active count; a second commit or rollback doesn't count it again
+   private void finish() {
+      synchronized (activeLock) {
+         if (finished)
+            return;
+         finished = true;
+         active--;
+         activeLock.notifyAll();            // AM: Wakes awaitIdle()
+      }
    }
    
    /**
@@ -129,7 +179,7 @@ public class Transaction {
     * before user transactions begin.
     */
    public void recover() {
-      bm.flushAll(txnum);
+      pools.flushAll(txnum);
       recoveryMgr.recover();
    }
    
@@ -144,6 +194,42 @@ public class Transaction {
       mybuffers.pin(blk);
   }
    
+   /**
+    * Tell the buffer manager that the specified blocks
+    * will be pinned soon, so that it can start reading
+    * them in without making the transaction wait.
+    * No locks are obtained here; they are obtained
+    * as usual when the blocks are pinned.
+    * @param blks the blocks that will be pinned next
+    */
+   public void prefetch(List<BlockId> blks) {
+      pools.prefetch(blks);
+   }
+
+   /**
+    * Pin the blocks of the specified file through a small
+    * buffer ring from now on, instead of the shared pool,
+    * until the transaction commits or rolls back.
+    * Meant for files that are only ever read or written in bulk,
+    * such as temporary tables.
+    * @param filename the name of the file
+    */
+   public void useBufferRing(String filename) {
+      mybuffers.useRing(filename);
+   }
+
+   /**
+    * Pin the block like pin(), but through the transaction's
+    * buffer ring instead of the shared pool.
+    * Meant for one step of a large sequential scan; later
+    * pins of the same file go to the shared pool again.
+    * @param blk a reference to the disk block
+    */
+   public void pinInRing(BlockId blk) {
+      concurMgr.sLock(blk);
+      mybuffers.pin(blk, true);
+   }
+
    /**
     * Unpin the specified block.
     * The transaction looks up the buffer pinned to this block,
@@ -202,7 +288,7 @@ public class Transaction {
    public void setInt(BlockId blk, int offset, int val, boolean okToLog) {
       concurMgr.xLock(blk);
       Buffer buff = mybuffers.getBuffer(blk);         // AM: Retrieves pinned Buffer from Transaction's private list
-      int lsn = -1;
+      long lsn = -1;
       if (okToLog)
          lsn = recoveryMgr.setInt(buff, offset, val); // AM: Write Transaction to Log before updating Buffer.
       Page p = buff.contents();                       // AM: Return reference to File being processed.
@@ -226,7 +312,7 @@ public class Transaction {
    public void setString(BlockId blk, int offset, String val, boolean okToLog) {
       concurMgr.xLock(blk);
       Buffer buff = mybuffers.getBuffer(blk);
-      int lsn = -1;
+      long lsn = -1;
       if (okToLog)
          lsn = recoveryMgr.setString(buff, offset, val);
       Page p = buff.contents();
@@ -275,7 +361,20 @@ public class Transaction {
    }
    
    public int availableBuffs() {
-      return bm.available();
+      return pools.mainPool().available();
+   }
+
+   public int totalBuffs() {
+      return pools.mainPool().numBuffers();
+   }
+
+   // AM: The same for the pool that caches the specified file
+   public int availableBuffs(String filename) {
+      return pools.poolFor(filename).available();
+   }
+
+   public int totalBuffs(String filename) {
+      return pools.poolFor(filename).numBuffers();
    }
 
    // AM: Exercise 5.50
@@ -286,8 +385,8 @@ public class Transaction {
       // AM: 2. Read the current value from disk
       //    (Note: In a real system, we would cache this to avoid I/O on every Tx)
       int nextTxNum = 0;
+      Page p = fm.pageArena().borrow();   // AM: One temporary Page for both steps, returned to the arena at the end
       try{
-         Page p = new Page(fm.blockSize());
          fm.read(blk, p);
          nextTxNum = p.getInt(0);   // Read value at offset 0
       }
@@ -301,13 +400,15 @@ public class Transaction {
 
       // AM: 4. Write the NEW value back to disk immediately
       try{
-         Page p = new Page(fm.blockSize());
          p.setInt(0, nextTxNum);
          fm.write(blk, p);
       }
       catch(Exception e){
          throw new RuntimeException("Could not update transaction sequence!");
       }
+      finally{
+         fm.pageArena().release(p);
+      }
 
       return nextTxNum;
    }
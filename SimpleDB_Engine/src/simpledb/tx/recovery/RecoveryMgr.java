@@ -3,15 +3,16 @@ package simpledb.tx.recovery;
 import static simpledb.tx.recovery.LogRecord.CHECKPOINT;
 import static simpledb.tx.recovery.LogRecord.COMMIT;
 import static simpledb.tx.recovery.LogRecord.ROLLBACK;
-import static simpledb.tx.recovery.LogRecord.START;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 
 import simpledb.buffer.Buffer;
-import simpledb.buffer.BufferMgr;
+import simpledb.buffer.BufferPools;
 import simpledb.file.BlockId;
+import simpledb.file.Page;
 import simpledb.log.LogMgr;
 import simpledb.tx.Transaction;
 
@@ -31,9 +32,13 @@ import simpledb.tx.Transaction;
  * - This ensures that if the system crashes, we have a "receipt" of what we intended to do.
  * - Supports specific record types: START, COMMIT, ROLLBACK, CHECKPOINT, SETINT, SETSTRING.
  * * 2. THE SAFETY NET (Rollback)
- * - If a transaction fails (or the user cancels it), this manager reads the Log backwards.
- * - It finds the specific changes made by this transaction ID and undoes them
+ * - If a transaction fails (or the user cancels it), this manager undoes its changes, newest first
  * (restoring old values).
+ * - LSNs are log addresses (see LogMgr), so the manager remembers the LSN of each update record it writes
+ * and reads exactly those records back with LogMgr.read(), instead of scanning the whole Log backwards
+ * through every other transaction's records to this transaction's START.
+ * - A transaction's records are mostly in a few log blocks, so rollback reads them into one page and only
+ * reads again when the next record is in a different block.
  * * 3. THE RESTORER (Crash Recovery)
  * - On system startup, this manager performs the "Undo" phase of the recovery algorithm.
  * - It scans the log to find transactions that were running when the crash happened
@@ -47,19 +52,21 @@ import simpledb.tx.Transaction;
  */
 public class RecoveryMgr {
    private LogMgr lm;
-   private BufferMgr bm;
+   private BufferPools pools;
    private Transaction tx;
    private int txnum;
+   private long[] updates = new long[16];   // AM: LSNs of this transaction's SETINT/SETSTRING records, oldest first
+   private int numUpdates = 0;
 
    /**
     * Create a recovery manager for the specified transaction.
     * @param txnum the ID of the specified transaction
     */
-   public RecoveryMgr(Transaction tx, int txnum, LogMgr lm, BufferMgr bm) {
+   public RecoveryMgr(Transaction tx, int txnum, LogMgr lm, BufferPools pools) {
       this.tx = tx;
       this.txnum = txnum;
       this.lm = lm;
-      this.bm = bm;
+      this.pools = pools;
       StartRecord.writeToLog(lm, txnum);
    }
 
@@ -70,8 +77,8 @@ public class RecoveryMgr {
     * AM: User Data Pages are flushed first before writing Commit to the Log to simplify recovery.
     */
    public void commit() {
-      bm.flushAll(txnum);                             // AM: Flushes Log (the actual "SETINT" changes) and Buffer w/ modified data to the Disk.
-      int lsn = CommitRecord.writeToLog(lm, txnum);   // AM: Writes the Commit Record to the Log.
+      pools.flushAll(txnum);                          // AM: Flushes Log (the actual "SETINT" changes) and Buffer w/ modified data to the Disk.
+      long lsn = CommitRecord.writeToLog(lm, txnum);   // AM: Writes the Commit Record to the Log.
       lm.flush(lsn);                                  // AM: Flushes CommitRecord update (ie. Commit Log record) to Disk.
    }
 
@@ -80,8 +87,8 @@ public class RecoveryMgr {
     */
    public void rollback() {
       doRollback();
-      bm.flushAll(txnum);                             // AM: Flushes rolled-back Buffer of transaction to the Log and Disk
-      int lsn = RollbackRecord.writeToLog(lm, txnum);
+      pools.flushAll(txnum);                          // AM: Flushes rolled-back Buffer of transaction to the Log and Disk
+      long lsn = RollbackRecord.writeToLog(lm, txnum);
       lm.flush(lsn);
    }
 
@@ -91,8 +98,8 @@ public class RecoveryMgr {
     */
    public void recover() {
       doRecover();
-      bm.flushAll(txnum);
-      int lsn = CheckpointRecord.writeToLog(lm);
+      pools.flushAll(txnum);
+      long lsn = CheckpointRecord.writeToLog(lm);
       lm.flush(lsn);
    }
 
@@ -102,10 +109,10 @@ public class RecoveryMgr {
     * @param offset the offset of the value in the page
     * @param newval the value to be written
     */
-   public int setInt(Buffer buff, int offset, int newval) {
+   public long setInt(Buffer buff, int offset, int newval) {
       int oldval = buff.contents().getInt(offset);
       BlockId blk = buff.block();
-      return SetIntRecord.writeToLog(lm, txnum, blk, offset, oldval);
+      return remember(SetIntRecord.writeToLog(lm, txnum, blk, offset, oldval));
    }
 
    /**
@@ -114,30 +121,36 @@ public class RecoveryMgr {
     * @param offset the offset of the value in the page
     * @param newval the value to be written
     */
-   public int setString(Buffer buff, int offset, String newval) {
+   public long setString(Buffer buff, int offset, String newval) {
       String oldval = buff.contents().getString(offset);                   // 1. Read the OLD value currently in the buffer
       BlockId blk = buff.block();
-      return SetStringRecord.writeToLog(lm, txnum, blk, offset, oldval);   // 2. Write the OLD value to the Log
+      return remember(SetStringRecord.writeToLog(lm, txnum, blk, offset, oldval));   // 2. Write the OLD value to the Log
+   }
+
+   // AM: Records the LSN of an update for rollback
+   private long remember(long lsn) {
+      if (numUpdates == updates.length)
+         updates = Arrays.copyOf(updates, 2 * numUpdates);
+      updates[numUpdates++] = lsn;
+      return lsn;
    }
 
    /**
-    * Rollback the transaction, by iterating
-    * through the log records until it finds 
-    * the transaction's START record,
-    * calling undo() for each of the transaction's
-    * log records.
+    * Rollback the transaction, by reading
+    * each of the transaction's update records
+    * directly by its LSN, newest first,
+    * and calling undo() for it.
     */
    private void doRollback() {
-      Iterator<byte[]> iter = lm.iterator();
-      while (iter.hasNext()) {
-         byte[] bytes = iter.next();
-         LogRecord rec = LogRecord.createLogRecord(bytes); 
-         if (rec.txNumber() == txnum) {
-            if (rec.op() == START)
-               return;
-            rec.undo(tx);
-         }
+      Page p = lm.newPage();
+      int current = -1;                         // AM: The log block p holds
+      for (int i = numUpdates - 1; i >= 0; i--) {
+         int blknum = LogMgr.blockNumber(updates[i]);
+         LogRecord rec = LogRecord.createLogRecord(lm.read(updates[i], p, blknum != current));
+         current = blknum;
+         rec.undo(tx);
       }
+      numUpdates = 0;
    }
 
    /**
@@ -59,7 +59,7 @@ public class SetIntRecord implements LogRecord {
     * integer value at that offset.
     * @return the LSN of the last log value
     */
-   public static int writeToLog(LogMgr lm, int txnum, BlockId blk, int offset, int val) {
+   public static long writeToLog(LogMgr lm, int txnum, BlockId blk, int offset, int val) {
       int tpos = Integer.BYTES;
       int fpos = tpos + Integer.BYTES;
       int bpos = fpos + Page.maxLength(blk.fileName().length());
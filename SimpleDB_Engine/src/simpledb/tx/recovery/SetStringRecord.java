@@ -67,7 +67,7 @@ public class SetStringRecord implements LogRecord {
          ^               ^             ^                        ^              ^                  ^
          0               tpos          fpos                     bpos           opos               vpos
     */
-   public static int writeToLog(LogMgr lm, int txnum, BlockId blk, int offset, String val) {
+   public static long writeToLog(LogMgr lm, int txnum, BlockId blk, int offset, String val) {
       int tpos = Integer.BYTES;
       int fpos = tpos + Integer.BYTES;
       int bpos = fpos + Page.maxLength(blk.fileName().length());